@@ -50,6 +50,10 @@ public class Keywords extends __UninstantiableImpl {
     
     public static final String IMAGE_PLAYER_TWO = "image.p2";
     
+    public static final String GAME_DIMENSION = "game.dimension";
+    
+    public static final String GAME_WIN_LENGTH = "game.win.length";
+    
     
     
     public static final String CFG_FILE_NAME = "cfg.xml";
@@ -18,66 +18,66 @@ package ca.raihan.tictactoe.game;
 
 import java.awt.Container;
 
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
-import java.util.function.Consumer;
-
 import ca.raihan.cfg.Config;
-import ca.raihan.tictactoe.Keywords;
+
+import ca.raihan.event.EventContext;
+import ca.raihan.event.EventListener;
 
 import ca.raihan.tictactoe.players.Player;
 import ca.raihan.util.Contract;
 
 /**
+ * AWT view over a {@link HeadlessGameManager}, which holds the game itself.
  *
  * @author Pranjal Raihan
  */
 public final class AWTGameManager implements GameManager<Container> {
     
-    private final AWTTurnManager turnManager;
-    
-    private final Object eventKey = new Object();
+    private final HeadlessGameManager model;
     
     private AWTGrid grid;
     
-    private Config config;
-    
-    private final Map<String, Object> resources = new HashMap<>();
-    
-    private final Player player1;
-    
-    private final Player player2;
+    private final Map<Grid<?>, AWTGrid> views = new IdentityHashMap<>();
     
     
     
     public AWTGameManager(
             GameInitParams<? extends Player, ? extends Player> initParams) {
-        Contract.nonNull(initParams);
-        turnManager = new AWTTurnManager(this, eventKey);
-        setConfig(initParams.getConfig());
-        this.player1 = initParams.getPlayer1();
-        this.player2 = initParams.getPlayer2();
-        resources.put(Keywords.IMAGE_PLAYER_ONE, initParams.getPlayer1Image());
-        resources.put(Keywords.IMAGE_PLAYER_TWO, initParams.getPlayer2Image());
+        model = new HeadlessGameManager(Contract.nonNull(initParams));
+        model.changeEvent().addListener(new EventListener<EventContext>() {
+            
+            @Override
+            public void onEvent(Object sender, EventContext context) {
+                // Cells have no view of their own, their grid paints them
+                Grid<?> g = (Grid<?>) sender;
+                AWTGrid view = views.get(g);
+                while (view == null && g != null) {
+                    g = g.getParent();
+                    view = views.get(g);
+                }
+                if (view != null) {
+                    view.refresh();
+                }
+            }
+            
+        });
     }
     
-    @SuppressWarnings("unchecked")
     public void createGrids(int depth, int size) {
         if (grid != null) {
             throw new IllegalStateException("Grid already created");
         }
-        grid = new AWTGrid(this, eventKey);
+        // Views create the grids they show, cells are never created for 
+        // painting alone
+        model.createGridsLazily(depth);
+        grid = new AWTGrid(this, model.getGrid());
         grid.getHandle().setSize(size);
-        grid.generateChildrenImpl(depth);
-        grid.doHierarchial(new Consumer<Grid>() {
-            
-            @Override
-            public void accept(Grid t) {
-                ((AWTGrid) t).setStatePlayableAndFilteredImpl(false);
-            }
-            
-        });
+        registerImpl(grid);
+        grid.generateChildrenImpl();
+        grid.refresh();
     }
     
     public void populate(Container container, int x, int y) {
@@ -89,62 +89,64 @@ public final class AWTGameManager implements GameManager<Container> {
     }
     
     public void start() {
-        grid.doHierarchial(new Consumer<Grid>() {
-            
-            @Override
-            public void accept(Grid t) {
-                AWTGrid g = (AWTGrid) t;
-                if (!g.hasStateChildrenImpl())
-                    g.setStatePlayableAndFilteredImpl(true);
-            }
-            
-        });
+        model.start();
     }
     
-    public AWTTurnManager getTurnManager() {
-        return turnManager;
+    public long[] legalMoves() {
+        return model.legalMoves();
+    }
+    
+    public boolean undo() {
+        return model.undo();
+    }
+    
+    public boolean redo() {
+        return model.redo();
+    }
+    
+    public TurnManager getTurnManager() {
+        return model.getTurnManager();
+    }
+    
+    public GridRules getRules() {
+        return model.getRules();
     }
     
     public Config getConfig() {
-        return config;
+        return model.getConfig();
     }
     
     public void setConfig(Config cfg) {
-        this.config = cfg;
+        model.setConfig(cfg);
     }
     
-    @SuppressWarnings("unchecked")
     public <U> U getResource(String key, Class<U> type) {
-        Contract.nonNull(key);
-        Contract.nonNull(type);
-        Object found =  resources.get(key);
-        if (found == null)
-            return null;
-        if (type.isAssignableFrom(found.getClass()))
-            return (U) found;
-        throw new IllegalArgumentException(
-                "No resource with key \"" 
-                        + key + "\" and type \"" 
-                        + type.getName() + "\"");
+        return model.getResource(key, type);
     }
-
+    
     @Override
     public Player getPlayer(Flag flag) {
-        Contract.nonNull(flag);
-        if (flag == Flag.NONE) {
-            return null;
-        }
-        return flag == Flag.PLAYER_ONE ? player1 : player2;
+        return model.getPlayer(flag);
     }
     
     @Override
     public Flag getFlagOf(Player player) {
-        if (player == player1) {
-            return Flag.PLAYER_ONE;
-        } else if (player == player2) {
-            return Flag.PLAYER_TWO;
-        }
-        throw new IllegalArgumentException("Player not found in this manager");
+        return model.getFlagOf(player);
+    }
+    
+    
+    
+    
+    HeadlessGameManager getModel() {
+        return model;
+    }
+    
+    void registerImpl(AWTGrid view) {
+        views.put(view.getModel(), view);
+    }
+    
+    void unregisterImpl(AWTGrid view) {
+        views.remove(view.getModel());
     }
     
 }
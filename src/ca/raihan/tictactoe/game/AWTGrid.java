@@ -16,413 +16,258 @@
 
 package ca.raihan.tictactoe.game;
 
-import java.awt.Container;
 import java.awt.Color;
+import java.awt.Graphics;
 import java.awt.Image;
 
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
-import java.util.function.Consumer;
-
 import ca.raihan.util.Contract;
 
 import ca.raihan.cfg.Config;
 
 import ca.raihan.tictactoe.Keywords;
 
-import ca.raihan.event.Event;
-import ca.raihan.event.EventListener;
-import ca.raihan.event.PrivilegedEvent;
-import ca.raihan.event.EmptyEventContext;
-
 import ca.raihan.tictactoe.players.Player;
 
 /**
+ * View of a {@link HeadlessGrid}. Holds no game state of its own, it only
+ * mirrors the model it was created for.
+ * <p>
+ * Only grids get a component. A grid whose children are cells paints them 
+ * itself and works out which one the mouse is on, so the cells, which are 
+ * most of a game, cost no AWT peers.
  *
  * @author Pranjal Raihan
  */
-class AWTGrid implements Grid<Container> {
-    
-    private static final String NO_CHILDREN_MESSAGE = "Grid has no children";
-    
-    
-    
-    
-    private int states;
-    
-    private GridCollection childGrids;
-    
-    private GridCollection peerGrids;
-    
-    private final Object mutex = new Object();
-    
-    private final Object eventKey;
+class AWTGrid {
     
-    private Player player;
+    private final Grid<?> model;
     
-    private final PrivilegedEvent<ChangeBlockContext> changeBlockEvent;
+    private AWTGrid[] childViews;
     
-    private final PrivilegedEvent<PlayContext> localEndEvent;
+    private boolean showsPlayer;
     
-    private final PrivilegedEvent<PlayContext> playEvent;
+    /**
+     * If the children of the model are cells, painted by this view.
+     */
+    private final boolean paintsCells;
     
-    private AWTGridHandle guiHandle;
+    /**
+     * Index of the cell under the mouse, {@code -1} for none.
+     */
+    private int hoverCell = -1;
     
-    private final GameManager<Container> gameManager;
+    private final AWTGridHandle guiHandle;
     
+    private final AWTMouseListener mouseListener;
     
+    private final AWTGameManager gameManager;
     
     
-    {
-        guiHandle = new AWTGridHandle();
-        guiHandle.setLayout(null);
-        guiHandle.addMouseListener(new AWTMouseListener());
-    }
-    
     
     
-    
-    public AWTGrid(GameManager<Container> manager, Object eventKey) {
+    AWTGrid(AWTGameManager manager, Grid<?> model) {
         this.gameManager = Contract.nonNull(manager);
-        this.eventKey = eventKey;
-        changeBlockEvent = new PrivilegedEvent<>(eventKey);
-        localEndEvent = new PrivilegedEvent<>(eventKey);
-        playEvent = new PrivilegedEvent<>(eventKey);
-        setStatePlayableAndFilteredImpl(true);
-    }
-    
-    
-    
-    
-    public int getStates() {
-        synchronized (mutex) {
-            if ((states & States.GREAT_PARENT) == 0)
-                checkGreatParent();
-            return states;
-        }
-    }
-    
-    private void checkGreatParent() {
-        if (peerGrids == null) {
-            states |= States.GREAT_PARENT;
-        }
-    }
-    
-    void start() {
-        synchronized (mutex) {
-            states |= States.STARTED;
+        this.model = Contract.nonNull(model);
+        paintsCells = 
+                model.getDepth() == manager.getModel().getDepth() - 1;
+        if (paintsCells) {
+            guiHandle = new AWTGridHandle() {
+                
+                @Override
+                public void paint(Graphics g) {
+                    super.paint(g);
+                    paintCellsImpl(g);
+                }
+                
+            };
+        } else {
+            guiHandle = new AWTGridHandle();
         }
-    }
-    
-    @SuppressWarnings("unchecked")
-    public Grid<Container> getGreatParent() {
-        AWTGrid rv = this;
-        synchronized (mutex) {
-            while (!rv.isGreatParentImpl()) {
-                rv = (AWTGrid) rv.getPeers().getOwner();
-            }
-            return rv;
+        guiHandle.setLayout(null);
+        mouseListener = new AWTMouseListener();
+        guiHandle.addMouseListener(mouseListener);
+        if (paintsCells) {
+            guiHandle.addMouseMotionListener(mouseListener);
         }
     }
     
-    public GridCollection getChildren() {
-        if (!hasStateChildrenImpl()) {
-            throw new IllegalStateException(NO_CHILDREN_MESSAGE);
-        }
-        synchronized (mutex) {
-            return new GridCollection.ConstGridCollection(childGrids);
-        }
-    }
     
-    public GridCollection getPeers() {
-        synchronized (mutex) {
-            return new GridCollection.ConstGridCollection(peerGrids);
-        }
-    }
     
-    public GridCoord getCoord() {
-        synchronized (mutex) {
-            if (peerGrids == null) {
-                throw new IllegalStateException(
-                        "No coordinate - top level grid: " + this.getHandle());
-            }
-            GridCoord rv = peerGrids.getCoord(this);
-            if (rv == null) {
-                throw new IllegalStateException(
-                        "Peers do not recognized this grid");
-            }
-            return rv;
-        }
-    }
     
-    public Player getPlayer() {
-        synchronized (mutex) {
-            return player;
-        }
+    Grid<?> getModel() {
+        return model;
     }
     
-    public AWTGridHandle getHandle() {
+    AWTGridHandle getHandle() {
         return guiHandle;
     }
     
-    public GameManager<Container> getGameManager() {
+    AWTGameManager getGameManager() {
         return gameManager;
     }
     
-    public Event<ChangeBlockContext> changeBlockEvent() {
-        return changeBlockEvent;
-    }
-    
-    public Event<PlayContext> endEvent() {
-        return localEndEvent;
-    }
-    
-    public Event<PlayContext> playEvent() {
-        return playEvent;
-    }
-    
-    public void accept(Player player) {
-        Contract.nonNull(player);
-        acceptImpl(player);
-    }
-    
     
     
     
     boolean hasStateChildrenImpl() {
-        synchronized (mutex) {
-            int state = getStates();
-            return (state & States.HAS_CHILDREN) != 0;
-        }
-    }
-    
-    @SuppressWarnings("unchecked")
-    AWTGrid getPreGreatParentImpl() {
-           return isGreatParentImpl() ? 
-                   this : 
-                   (AWTGrid) getGreatParent()
-                                .getChildren()
-                                .getGrid(new GridCoord(0, 0));
-    }
-    
-    boolean isGreatParentImpl() {
-        return (getStates() & States.GREAT_PARENT) != 0;
-    }
-    
-    private void acceptImpl(Player player) {
-        setStateLockedImpl();
-        if (hasStateChildrenImpl()) {
-            getHandle().removeAll();
-            this.childGrids.clear();
-            this.childGrids = null;
-            this.states = getStates() & ~States.HAS_CHILDREN;
-        }
-        synchronized (mutex) {
-            this.player = player;
-            getHandle().setImage(getImageOfPlayerImpl(player), true);
-            boolean isGreat = isGreatParentImpl();
-            if (isGreat) {
-                getGameManager().getTurnManager().endEvent().raise(
-                        eventKey, this, new EmptyEventContext());
-                playEvent.raise(eventKey, this, 
-                        new PlayContextImpl(
-                                getGameManager().getFlagOf(player), null));
-                return;
-            }
-            PlayContextImpl context = new PlayContextImpl(
-                    getGameManager().getFlagOf(player), getCoord());
-            playEvent.raise(eventKey, this, context);
-            GridCoord c = getCoord();
-            GridCollection.UpdateInfo ui = peerGrids.update();
-            Flag f = ui.getFlag();
-            if (f != Flag.NONE) {
-                localEndEvent.raise(eventKey, this, new PlayContextImpl(f, c));
-            }
-        }
-    }
-    
-    private Image getImageOfPlayerImpl(Player player) {
-        String key;
-        GameManager<Container> gm = getGameManager();
-        Flag flag = gm.getFlagOf(player);
-        switch (flag) {
-            case PLAYER_ONE:
-                key = Keywords.IMAGE_PLAYER_ONE;
-                break;
-            case PLAYER_TWO:
-                key = Keywords.IMAGE_PLAYER_TWO;
-                break;
-            default:
-                throw new IllegalArgumentException(
-                        "cannot resolve flag: " + flag);
-        }
-        
-        return (Image) gm.<Image>getResource(key, Image.class);
+        return hasStateImpl(model, Grid.States.HAS_CHILDREN);
     }
     
     boolean isStateLockedImpl() {
-        synchronized (mutex) {
-            return (states & States.LOCKED) != 0; 
-        }
-    }
-    
-    final void setStateLockedImpl() {
-        setStatePlayableAndFilteredImpl(false);
-        synchronized (mutex) {
-            this.states |= States.LOCKED;
-            AWTGridHandle handle = getHandle();
-            handle.setFiltered(true);
-        }
+        return hasStateImpl(model, Grid.States.LOCKED);
     }
     
     boolean isStatePlayableImpl() {
-        return (getStates() & States.PLAYABLE) != 0;
-    }
-    
-    final void setStatePlayableAndFilteredImpl(boolean playable) {
-        if (isStateLockedImpl())
-            return;
-        synchronized (mutex) {
-            states = playable ? 
-                    (states | States.PLAYABLE) : 
-                    (states & ~States.PLAYABLE);
-            AWTGridHandle handle = getHandle();
-            handle.setFiltered(!playable);
-        }
+        return hasStateImpl(model, Grid.States.PLAYABLE);
     }
     
-    final void setStateOnlyNonPlayableImpl(boolean playable) {
-        if (isStateLockedImpl())
-            return;
-        synchronized (mutex) {
-            states = playable ? 
-                    (states | States.PLAYABLE) : 
-                    (states & ~States.PLAYABLE);
-        }
+    static boolean hasStateImpl(Grid<?> grid, final int state) {
+        return (grid.getStates() & state) != 0;
     }
     
-    void generateChildrenImpl(final int depth) {
-        if (depth == 0)
+    void generateChildrenImpl() {
+        if (!hasStateChildrenImpl() || paintsCells)
             return;
-        setStateOnlyNonPlayableImpl(false);
-        childGrids = new GridCollection(this);
-        states |= States.HAS_CHILDREN;
-        ChangeBlockListener evtChange = new ChangeBlockListener();
-        PlayListener evtPlay = new PlayListener();
-        EndListener evtEnd = new EndListener();
-        final int size = getHandle().getWidth() / GridConsts.DIMENSION;
-        for (int i = 0; i < GridConsts.DIMENSION; ++i) {
-            for (int j = 0; j < GridConsts.DIMENSION; ++j) {
-                AWTGrid g = new AWTGrid(getGameManager(), eventKey);
+        GridCollection children = model.getChildren();
+        final int dimension = gameManager.getRules().getDimension();
+        childViews = new AWTGrid[dimension * dimension];
+        final int size = getHandle().getWidth() / dimension;
+        for (int i = 0; i < dimension; ++i) {
+            for (int j = 0; j < dimension; ++j) {
+                GridCoord coord = new GridCoord(i, j);
+                AWTGrid g = new AWTGrid(gameManager, children.getGrid(coord));
                 AWTGridHandle h = g.getHandle();
                 h.setSize(size);
                 h.setLocation(i * size, j * size);
-                addImpl(g);
-                g.changeBlockEvent().addListener(evtChange);
-                g.playEvent().addListener(evtPlay);
-                g.endEvent().addListener(evtEnd);
-                g.peerGrids = childGrids;
-                childGrids.putGrid(new GridCoord(i, j), g);
+                getHandle().add(h);
+                childViews[GridUtils.coordToIndex(coord, dimension)] = g;
+                gameManager.registerImpl(g);
+                g.generateChildrenImpl();
             }
         }
-        childGrids.forEach(new Consumer<Grid>() {
-            
-            public void accept(Grid t) {
-                if (t instanceof AWTGrid) {
-                    ((AWTGrid) t).generateChildrenImpl(depth - 1);
-                }
-            }
-            
-        });
-    }
-    
-    private void addImpl(AWTGrid g) {
-        getHandle().add(g.getHandle());
     }
     
-    private void evalutateChangeImpl(AWTGrid sender, PlayContext context) {
-        if (isGreatParentImpl()) {
-            return;
+    /**
+     * Brings the handle, and the handles of every child, up to date with the 
+     * model.
+     */
+    void refresh() {
+        Player p = model.getPlayer();
+        if (p != null && !showsPlayer) {
+            showsPlayer = true;
+            removeChildrenImpl();
+            getHandle().setImage(getImageOfPlayerImpl(p), true);
+        } else if (p == null && showsPlayer) {
+            // The move that won the model was undone
+            showsPlayer = false;
+            getHandle().setImage(null, false);
+            generateChildrenImpl();
         }
-        GridCoord coord = sender.getCoord();
-        if (coord == null) {
-            return;
+        getHandle().setFiltered(!isStatePlayableImpl());
+        if (childViews != null) {
+            for (AWTGrid g : childViews) {
+                g.refresh();
+            }
         }
-        GridCollection peers = getPeers();
-        AWTGrid grid = (AWTGrid) peers.getGrid(coord);
-        final boolean locked = (grid.getStates() & States.LOCKED) != 0;
-        peers.forEach(new Consumer<Grid>() {
-            
-            @Override
-            public void accept(Grid t) {
-                if (t instanceof AWTGrid) {
-                    AWTGrid g = ((AWTGrid) t);
-                    g.doHierarchial(new Consumer<AWTGrid>() {
-                        
-                        @Override
-                        public void accept(AWTGrid t) {
-                            t.setStatePlayableAndFilteredImpl(locked);
-                        }
-                        
-                    });
+        if (paintsCells) {
+            getHandle().repaint();
+        }
+    }
+    
+    /**
+     * @return the index of the cell at {@code (px, py)} on the handle, 
+     * {@code -1} if there is none
+     */
+    private int cellIndexImpl(final int px, final int py) {
+        final int dimension = gameManager.getRules().getDimension();
+        final int size = getHandle().getWidth() / dimension;
+        if (size <= 0 || px < 0 || py < 0)
+            return -1;
+        final int x = px / size;
+        final int y = py / size;
+        if (x >= dimension || y >= dimension)
+            return -1;
+        return dimension * x + y;
+    }
+    
+    /**
+     * The cells are read without creating them, a lazily created grid that 
+     * was never played in is painted empty.
+     */
+    private void paintCellsImpl(Graphics g) {
+        if (showsPlayer || !hasStateChildrenImpl())
+            return;
+        final AWTGridHandle h = getHandle();
+        final int dimension = gameManager.getRules().getDimension();
+        final int size = h.getWidth() / dimension;
+        HeadlessGameManager manager = gameManager.getModel();
+        GridCollection children = ((HeadlessGrid) model).getChildrenImpl();
+        final int legalMask = manager.getLegalMask(manager.getPath(model));
+        for (int i = 0; i < dimension; ++i) {
+            for (int j = 0; j < dimension; ++j) {
+                final int index = dimension * i + j;
+                final int px = i * size;
+                final int py = j * size;
+                Image image = null;
+                Player p = children == null ? 
+                        null : children.getGrid(i, j).getPlayer();
+                if (p != null) {
+                    image = getImageOfPlayerImpl(p);
+                } else if (index == hoverCell) {
+                    g.setColor((legalMask & (1 << index)) != 0 ? 
+                            mouseListener.playableColor : 
+                            mouseListener.unplayableColor);
+                    g.fillRect(px, py, size, size);
+                    image = getImageOfPlayerImpl(
+                            gameManager.getTurnManager().getCurrentPlayer());
                 }
-            }
-            
-        });
-        if (!locked) {
-            grid.doHierarchial(new Consumer<AWTGrid>() {
-                
-                @Override
-                public void accept(AWTGrid t) {
-                    t.setStatePlayableAndFilteredImpl(true);
+                if (image != null) {
+                    g.drawImage(image, px, py, size, size, h);
+                }
+                Color c = h.getBorderColor();
+                if (h.isBorderShown() && c != null && size > 1) {
+                    g.setColor(c);
+                    g.drawRect(px, py, size - 1, size - 1);
                 }
-            
-            });
-        }
-    }
-    
-    @SuppressWarnings("unchecked")
-    void doHierarchial(Consumer<? super AWTGrid> consumer) {
-        consumer.accept(this);
-        if (hasStateChildrenImpl()) {
-            for (Grid g : getChildren()) {
-                ((AWTGrid) g).doHierarchial(consumer);
             }
         }
     }
     
-    
-    
-    
-    class ChangeBlockListener implements 
-            EventListener<Grid.ChangeBlockContext> {
-        
-        public void onEvent(Object sender, ChangeBlockContext context) {
+    private void removeChildrenImpl() {
+        if (childViews == null)
+            return;
+        getHandle().removeAll();
+        for (AWTGrid g : childViews) {
+            g.removeChildrenImpl();
+            gameManager.unregisterImpl(g);
         }
-        
+        childViews = null;
     }
     
-    class ChangeBlockContextImpl implements Grid.ChangeBlockContext {
-        
-        private final GridCoord coord;
-        
-        
-        
-        
-        public ChangeBlockContextImpl(GridCoord coord) {
-            this.coord = coord;
-        }
-        
-        
-        
-        
-        public GridCoord getCoord() {
-            return coord;
+    private Image getImageOfPlayerImpl(Player player) {
+        String key;
+        Flag flag = gameManager.getFlagOf(player);
+        switch (flag) {
+            case PLAYER_ONE:
+                key = Keywords.IMAGE_PLAYER_ONE;
+                break;
+            case PLAYER_TWO:
+                key = Keywords.IMAGE_PLAYER_TWO;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "cannot resolve flag: " + flag);
         }
         
+        return (Image) gameManager.<Image>getResource(key, Image.class);
     }
     
+    
+    
+    
     class AWTMouseListener extends MouseAdapter {
         
         private Color playableColor = Color.GREEN;
@@ -437,17 +282,33 @@ class AWTGrid implements Grid<Container> {
         
         @Override
         public void mouseClicked(MouseEvent evt) {
-            if (isStatePlayableImpl() && !hasStateChildrenImpl()) {
-                TurnManager t = getGameManager().getTurnManager();
-                accept(t.getCurrentPlayer());
-                t.nextTurnEvent().raise(
-                        eventKey, this, new EmptyEventContext());
+            HeadlessGameManager manager = gameManager.getModel();
+            if (paintsCells) {
+                final int index = cellIndexImpl(evt.getX(), evt.getY());
+                if (index >= 0) {
+                    manager.play(CellPath.child(manager.getPath(model), index));
+                }
+            } else if (isStatePlayableImpl() && !hasStateChildrenImpl()) {
+                manager.play(model);
+            }
+        }
+        
+        @Override
+        public void mouseMoved(MouseEvent evt) {
+            if (!paintsCells) {
+                return;
+            }
+            final int index = cellIndexImpl(evt.getX(), evt.getY());
+            if (index != hoverCell) {
+                checkColors();
+                hoverCell = index;
+                getHandle().repaint();
             }
         }
         
         @Override
         public void mouseEntered(MouseEvent evt) {
-            if (isStateLockedImpl() || hasStateChildrenImpl()) {
+            if (paintsCells || isStateLockedImpl() || hasStateChildrenImpl()) {
                 return;
             }
             checkColors();
@@ -457,13 +318,20 @@ class AWTGrid implements Grid<Container> {
             h.setForeground(c);
             h.setImage(
                     getImageOfPlayerImpl(
-                            getGameManager()
+                            gameManager
                                     .getTurnManager()
-                                    .getCurrentPlayer())); 
+                                    .getCurrentPlayer()));
         }
         
         @Override
         public void mouseExited(MouseEvent evt) {
+            if (paintsCells) {
+                if (hoverCell != -1) {
+                    hoverCell = -1;
+                    getHandle().repaint();
+                }
+                return;
+            }
             checkColors();
             if (neutral != null) {
                 AWTGridHandle h = getHandle();
@@ -479,7 +347,7 @@ class AWTGrid implements Grid<Container> {
         private void checkColors() {
             if (neutral == null)
                 neutral = getHandle().getBackground();
-            Config cfg = getGameManager().getConfig();
+            Config cfg = gameManager.getConfig();
             String found = cfg.getString(Keywords.COLOR_PLAYABLE);
             if (!found.equalsIgnoreCase(lastPlayableString)) {
                 playableColor = Color.decode(lastPlayableString = found);
@@ -492,60 +360,4 @@ class AWTGrid implements Grid<Container> {
         
     }
     
-    class PlayListener implements 
-            EventListener<Grid.PlayContext> {
-        
-        @SuppressWarnings("unchecked")
-        public void onEvent(Object sender, PlayContext context) {
-            getPreGreatParentImpl().evalutateChangeImpl(
-                    (AWTGrid) sender, context);
-        }
-        
-    }
-    
-    class EndListener implements EventListener<Grid.PlayContext> {
-        
-        @SuppressWarnings("unchecked")
-        public void onEvent(Object sender, PlayContext context) {
-            Flag f = context.getFlag();
-            switch (f) {
-                case PLAYER_ONE:
-                case PLAYER_TWO:
-                    accept(getGameManager().getPlayer(f));
-                    System.out.println("local end");
-                    break;
-                default:
-                    throw new IllegalArgumentException("Invalid flag: " + f);
-            }
-        }
-        
-    }
-    
-    class PlayContextImpl implements Grid.PlayContext {
-        
-        private final Flag flag;
-        
-        private final GridCoord coord;
-        
-        
-        
-        
-        PlayContextImpl(Flag flag, GridCoord coord) {
-            this.flag = flag;
-            this.coord = coord;
-        }
-        
-        
-        
-        
-        public Flag getFlag() {
-            return this.flag;
-        }
-        
-        public GridCoord getCoord() {
-            return coord;
-        }
-        
-    }
-    
 }
@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Plays many games at once, for statistics over millions of random or 
+ * scripted games. No grid object is created: every game is a row of 
+ * parallel primitive arrays, so playing a move touches a few {@code int}s 
+ * and costs {@code O(depth)}.
+ * <p>
+ * Grid {@code k} of game {@code g} is at {@code g * grids + k} in the 
+ * arrays of masks, numbered as in {@link PackedGames}. Each grid also keeps 
+ * the number of open cells below it, so a random move is drawn uniformly 
+ * from every legal move without listing them.
+ * <p>
+ * {@link #run()} plays every game to the end over the common 
+ * {@link ForkJoinPool}. Different games can be played from different 
+ * threads, a single game from only one at a time.
+ *
+ * @author Pranjal Raihan
+ */
+public final class BatchSimulator extends PackedGames {
+    
+    /**
+     * Number of games a task of {@link #run()} plays without splitting.
+     */
+    private static final int SPLIT_THRESHOLD = 256;
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    
+    
+    
+    private final int games;
+    
+    private final long seed;
+    
+    /**
+     * The masks and open counts, by {@code GRID_} field.
+     */
+    private final int[][] masks;
+    
+    private final int[] active;
+    
+    private final int[] moves;
+    
+    private final byte[] result;
+    
+    private final byte[] side;
+    
+    private final long[] random;
+    
+    
+    
+    
+    /**
+     * @param rules the rules of every game
+     * @param depth the depth of every game, at least {@code 1}
+     * @param games the number of games
+     * @param seed the seed of the random moves, the same seed plays the 
+     * same games
+     */
+    public BatchSimulator(GridRules rules, final int depth, final int games, 
+            final long seed) {
+        super(rules, depth);
+        Contract.require(games >= 0, "games < 0");
+        Contract.require((long) grids * games <= Integer.MAX_VALUE, 
+                "too many games");
+        this.games = games;
+        this.seed = seed;
+        masks = new int[GRID_FIELDS][grids * games];
+        active = new int[games];
+        moves = new int[games];
+        result = new byte[games];
+        side = new byte[games];
+        random = new long[games];
+        reset();
+    }
+    
+    
+    
+    
+    public int getGameCount() {
+        return games;
+    }
+    
+    /**
+     * Puts every game back to its start. The random moves are played again 
+     * the same way.
+     */
+    public void reset() {
+        for (int g = 0; g < games; ++g) {
+            resetImpl(g);
+            // Mixed, as SplitMix64 splits, so no stream is another shifted
+            random[g] = Zobrist.mix(seed + (g + 1) * GOLDEN_GAMMA);
+        }
+    }
+    
+    /**
+     * Plays random moves in every game until all of them are over.
+     */
+    public void run() {
+        run(null);
+    }
+    
+    /**
+     * Plays every game to the end, {@code policy} choosing each move. It is 
+     * called from many threads at once.
+     * 
+     * @param policy the policy, {@code null} for random moves
+     * 
+     * @throws IllegalArgumentException if {@code policy} chooses a move 
+     * that is not legal
+     */
+    public void run(Policy policy) {
+        ForkJoinPool.commonPool().invoke(new RunTask(0, games, policy));
+    }
+    
+    /**
+     * Plays a move in a game.
+     * 
+     * @param game the index of the game
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return {@code false} if the move is not legal, in which case nothing 
+     * changes
+     */
+    public boolean play(final int game, final long path) {
+        checkGameImpl(game);
+        if (!isLegalImpl(game, path)) {
+            return false;
+        }
+        playImpl(game, path);
+        return true;
+    }
+    
+    /**
+     * Plays a random legal move in a game.
+     * 
+     * @param game the index of the game
+     * 
+     * @return the {@link CellPath} of the move, {@link CellPath#NONE} if the 
+     * game is over
+     */
+    public long playRandom(final int game) {
+        checkGameImpl(game);
+        if (result[game] != PLAYING) {
+            return CellPath.NONE;
+        }
+        final long path = randomMoveImpl(game);
+        playImpl(game, path);
+        return path;
+    }
+    
+    /**
+     * @param game the index of the game
+     * @param buffer where to put the paths, must be big enough for every 
+     * legal move (see {@link #legalMoveCount(int)})
+     * 
+     * @return the number of paths put in {@code buffer}
+     */
+    public int legalMoves(final int game, long[] buffer) {
+        checkGameImpl(game);
+        Contract.nonNull(buffer);
+        return legalMovesImpl(game, buffer);
+    }
+    
+    /**
+     * @param game the index of the game
+     * 
+     * @return the number of legal moves of the game
+     */
+    public int legalMoveCount(final int game) {
+        checkGameImpl(game);
+        return legalMoveCountImpl(game);
+    }
+    
+    public boolean isOver(final int game) {
+        checkGameImpl(game);
+        return result[game] != PLAYING;
+    }
+    
+    /**
+     * @param game the index of the game
+     * 
+     * @return the flag of the player that won the game, {@code NONE} while 
+     * it is not over or if it was drawn
+     */
+    public Flag getWinner(final int game) {
+        checkGameImpl(game);
+        return winnerImpl(result[game]);
+    }
+    
+    public Flag getCurrentFlag(final int game) {
+        checkGameImpl(game);
+        return currentFlagImpl(game);
+    }
+    
+    /**
+     * @param game the index of the game
+     * 
+     * @return the index of the top level child the current player must 
+     * play in, or {@link HeadlessGameManager#FREE}
+     */
+    public int getActiveIndex(final int game) {
+        checkGameImpl(game);
+        return active[game];
+    }
+    
+    public int getMoveCount(final int game) {
+        checkGameImpl(game);
+        return moves[game];
+    }
+    
+    /**
+     * @param game the index of the game
+     * 
+     * @return the state of the game, without history
+     */
+    public GameState getState(final int game) {
+        checkGameImpl(game);
+        return stateImpl(game);
+    }
+    
+    /**
+     * @param flag the winner to count, {@code NONE} to count draws
+     * 
+     * @return the number of games over with that result
+     */
+    public int countResults(Flag flag) {
+        Contract.nonNull(flag);
+        int count = 0;
+        for (int g = 0; g < games; ++g) {
+            if (result[g] != PLAYING && winnerImpl(result[g]) == flag)
+                count++;
+        }
+        return count;
+    }
+    
+    /**
+     * @return the number of moves played over every game
+     */
+    public long getTotalMoveCount() {
+        long count = 0L;
+        for (int g = 0; g < games; ++g) {
+            count += moves[g];
+        }
+        return count;
+    }
+    
+    /**
+     * Gives the result of every game that is over, in order.
+     * 
+     * @param action what to do with each result
+     */
+    public void forEachResult(ResultConsumer action) {
+        Contract.nonNull(action);
+        for (int g = 0; g < games; ++g) {
+            if (result[g] != PLAYING) {
+                action.accept(g, winnerImpl(result[g]), moves[g]);
+            }
+        }
+    }
+    
+    
+    
+    
+    @Override
+    int getGrid(final int game, final int grid, final int field) {
+        return masks[field][game * grids + grid];
+    }
+    
+    @Override
+    void setGrid(final int game, final int grid, final int field, 
+            final int value) {
+        masks[field][game * grids + grid] = value;
+    }
+    
+    @Override
+    int getGame(final int game, final int field) {
+        switch (field) {
+            case GAME_RESULT:
+                return result[game];
+            case GAME_SIDE:
+                return side[game];
+            case GAME_ACTIVE:
+                return active[game];
+            default:
+                return moves[game];
+        }
+    }
+    
+    @Override
+    void setGame(final int game, final int field, final int value) {
+        switch (field) {
+            case GAME_RESULT:
+                result[game] = (byte) value;
+                break;
+            case GAME_SIDE:
+                side[game] = (byte) value;
+                break;
+            case GAME_ACTIVE:
+                active[game] = value;
+                break;
+            default:
+                moves[game] = value;
+                break;
+        }
+    }
+    
+    private void checkGameImpl(final int game) {
+        if (game < 0 || game >= games) {
+            throw new IndexOutOfBoundsException("game: " + game);
+        }
+    }
+    
+    private void runImpl(final int from, final int to, Policy policy) {
+        long[] buffer = policy == null ? null : new long[maxLegalMovesImpl()];
+        for (int g = from; g < to; ++g) {
+            while (result[g] == PLAYING) {
+                long path;
+                if (policy == null) {
+                    path = randomMoveImpl(g);
+                } else {
+                    final int n = legalMovesImpl(g, buffer);
+                    path = policy.choose(this, g, buffer, n);
+                    if (!isLegalImpl(g, path)) {
+                        throw new IllegalArgumentException("Illegal move: " 
+                                + CellPath.toString(
+                                        rules.getDimension(), path));
+                    }
+                }
+                playImpl(g, path);
+            }
+        }
+    }
+    
+    /**
+     * SplitMix64, one stream per game, each from a seed of its own.
+     * 
+     * @return a random number from {@code 0} to {@code bound - 1}
+     */
+    private int nextIntImpl(final int game, final int bound) {
+        final long z = Zobrist.mix(random[game] += GOLDEN_GAMMA);
+        return (int) (((z >>> 32) * bound) >>> 32);
+    }
+    
+    private long randomMoveImpl(final int game) {
+        return pickImpl(game, nextIntImpl(game, legalMoveCountImpl(game)));
+    }
+    
+    
+    
+    
+    /**
+     * Chooses the moves of the games of a {@link BatchSimulator}.
+     */
+    public static interface Policy {
+        
+        /**
+         * @param simulator the simulator
+         * @param game the index of the game to move in
+         * @param legalMoves the legal moves of the game
+         * @param count the number of legal moves
+         * 
+         * @return one of the legal moves
+         */
+        long choose(BatchSimulator simulator, int game, long[] legalMoves, 
+                int count);
+        
+    }
+    
+    /**
+     * Receives the result of a game of a {@link BatchSimulator}.
+     */
+    public static interface ResultConsumer {
+        
+        /**
+         * @param game the index of the game
+         * @param winner the winner, {@code NONE} for a draw
+         * @param moves the number of moves played
+         */
+        void accept(int game, Flag winner, int moves);
+        
+    }
+    
+    
+    
+    
+    private final class RunTask extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        
+        
+        
+        private final int from;
+        
+        private final int to;
+        
+        private final Policy policy;
+        
+        
+        
+        
+        private RunTask(final int from, final int to, Policy policy) {
+            this.from = from;
+            this.to = to;
+            this.policy = policy;
+        }
+        
+        
+        
+        
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                runImpl(from, to, policy);
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new RunTask(from, middle, policy), 
+                    new RunTask(middle, to, policy));
+        }
+        
+    }
+    
+}
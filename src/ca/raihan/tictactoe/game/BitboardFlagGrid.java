@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.Contract;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A {@code FlagGrid} that packs the occupancy of each 3x3 block into a single
+ * {@code int}. The low 9 bits hold the cells of {@link Flag#PLAYER_ONE}, bits
+ * 16 to 24 hold the cells of {@link Flag#PLAYER_TWO}. Cell {@code (x, y)} of a
+ * block is bit {@code 3 * x + y}, the same order as
+ * {@link GridUtils#coordToIndex(GridCoord)}.
+ * <p>
+ * Unlike {@code FlagGrid}, this class does not synchronize. It is meant to be
+ * owned by a single thread or guarded by its owner's lock.
+ *
+ * @author Pranjal Raihan
+ */
+public class BitboardFlagGrid extends FlagGrid {
+    
+    public static final int BLOCK_DIMENSION = 3;
+    
+    public static final int BLOCK_MASK = (1 << 9) - 1;
+    
+    static final int PLAYER_TWO_SHIFT = 16;
+    
+    
+    
+    
+    private final int len;
+    
+    private final int blocksPerSide;
+    
+    private final int[] blocks;
+    
+    
+    
+    
+    public BitboardFlagGrid(final int len) {
+        Contract.require(len >= 0, "len < 0");
+        this.len = len;
+        this.blocksPerSide = (len + BLOCK_DIMENSION - 1) / BLOCK_DIMENSION;
+        this.blocks = new int[blocksPerSide * blocksPerSide];
+    }
+    
+    public BitboardFlagGrid(BitboardFlagGrid copy) {
+        Contract.nonNull(copy);
+        this.len = copy.len;
+        this.blocksPerSide = copy.blocksPerSide;
+        this.blocks = Arrays.copyOf(copy.blocks, copy.blocks.length);
+    }
+    
+    
+    
+    
+    @Override
+    public int size() {
+        return len;
+    }
+    
+    public int blocksPerSide() {
+        return blocksPerSide;
+    }
+    
+    /**
+     * Returns the packed word of a block: player one in the low 9 bits,
+     * player two in bits 16 to 24.
+     *
+     * @param blockX the row of the block
+     * @param blockY the column of the block
+     *
+     * @return the packed occupancy of the block
+     */
+    public int getBlock(final int blockX, final int blockY) {
+        return blocks[blockIndex(blockX, blockY)];
+    }
+    
+    /**
+     * Returns the 9-bit occupancy mask of {@code flag} in a block. For
+     * {@link Flag#NONE} the empty cells of the block are returned.
+     *
+     * @param flag the flag to get the mask of
+     * @param blockX the row of the block
+     * @param blockY the column of the block
+     *
+     * @return the occupancy mask
+     */
+    public int getMask(Flag flag, final int blockX, final int blockY) {
+        final int index = blockIndex(blockX, blockY);
+        final int block = blocks[index];
+        switch (flag) {
+            case PLAYER_ONE:
+                return block & BLOCK_MASK;
+            case PLAYER_TWO:
+                return (block >>> PLAYER_TWO_SHIFT) & BLOCK_MASK;
+            default:
+                return validMask(blockX, blockY)
+                        & ~(block | (block >>> PLAYER_TWO_SHIFT));
+        }
+    }
+    
+    /**
+     * Same as {@code getMask(flag, 0, 0)}, for grids that are a single block.
+     *
+     * @param flag the flag to get the mask of
+     *
+     * @return the occupancy mask of the first block
+     */
+    public int getMask(Flag flag) {
+        return getMask(flag, 0, 0);
+    }
+    
+    
+    
+    
+    @Override
+    public Flag getFlag(final int x, final int y) {
+        checkIndex(x, y);
+        final int block = blocks[
+                (x / BLOCK_DIMENSION) * blocksPerSide + y / BLOCK_DIMENSION];
+        final int bit = 1 << cellBit(x, y);
+        if ((block & bit) != 0)
+            return Flag.PLAYER_ONE;
+        if (((block >>> PLAYER_TWO_SHIFT) & bit) != 0)
+            return Flag.PLAYER_TWO;
+        return Flag.NONE;
+    }
+    
+    @Override
+    public Flag getFlag(GridCoord coord) {
+        Contract.nonNull(coord);
+        return getFlag(coord.getX(), coord.getY());
+    }
+    
+    public void setFlag(final int x, final int y, Flag flag) {
+        Contract.nonNull(flag);
+        checkIndex(x, y);
+        final int index =
+                (x / BLOCK_DIMENSION) * blocksPerSide + y / BLOCK_DIMENSION;
+        final int bit = 1 << cellBit(x, y);
+        int block = blocks[index] & ~(bit | (bit << PLAYER_TWO_SHIFT));
+        switch (flag) {
+            case PLAYER_ONE:
+                block |= bit;
+                break;
+            case PLAYER_TWO:
+                block |= bit << PLAYER_TWO_SHIFT;
+                break;
+        }
+        blocks[index] = block;
+        modCount++;
+    }
+    
+    @Override
+    public void setFlag(GridCoord coord, Flag flag) {
+        Contract.nonNull(coord);
+        setFlag(coord.getX(), coord.getY(), flag);
+    }
+    
+    
+    
+    
+    @Override
+    public Flag[] getRow(final int index) {
+        checkLine(index);
+        Flag[] rowArray = new Flag[len];
+        for (int i = 0; i < len; ++i)
+            rowArray[i] = getFlag(index, i);
+        return rowArray;
+    }
+    
+    @Override
+    public Flag[] getColumn(final int index) {
+        checkLine(index);
+        Flag[] colArray = new Flag[len];
+        for (int i = 0; i < len; ++i)
+            colArray[i] = getFlag(i, index);
+        return colArray;
+    }
+    
+    @Override
+    public Flag[] getDiagonalLeftToRight() {
+        Flag[] diagArray = new Flag[len];
+        for (int i = 0; i < len; ++i)
+            diagArray[i] = getFlag(i, i);
+        return diagArray;
+    }
+    
+    @Override
+    public Flag[] getDiagonalRightToLeft() {
+        Flag[] diagArray = new Flag[len];
+        for (int i = 0; i < len; ++i)
+            diagArray[i] = getFlag(i, (len - 1) - i);
+        return diagArray;
+    }
+    
+    @Override
+    public boolean isFull() {
+        for (int i = 0; i < blocksPerSide; ++i) {
+            for (int j = 0; j < blocksPerSide; ++j) {
+                final int block = blocks[i * blocksPerSide + j];
+                final int occupied =
+                        (block | (block >>> PLAYER_TWO_SHIFT)) & BLOCK_MASK;
+                if (occupied != validMask(i, j))
+                    return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public int played() {
+        int count = 0;
+        for (int block : blocks) {
+            count += Integer.bitCount(block);
+        }
+        return count;
+    }
+    
+    @Override
+    public int unplayed() {
+        return len * len - played();
+    }
+    
+    
+    
+    
+    @Override
+    public void forEachIndexed(IndexedFlagConsumer action) {
+        Contract.nonNull(action);
+        for (int x = 0; x < len; ++x) {
+            for (int y = 0; y < len; ++y) {
+                action.accept(x, y, getFlag(x, y));
+            }
+        }
+    }
+    
+    @Override
+    public Iterator<Flag> iterator() {
+        return new Itr();
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < len; ++i) {
+            builder.append(Arrays.toString(getRow(i)));
+            builder.append("\n");
+        }
+        return builder.toString();
+    }
+    
+    
+    
+    
+    /**
+     * Returns the bit of cell {@code (x, y)} within its block.
+     *
+     * @param x the row of the cell in the grid
+     * @param y the column of the cell in the grid
+     *
+     * @return the bit index, {@code 0} to {@code 8}
+     */
+    static int cellBit(final int x, final int y) {
+        return BLOCK_DIMENSION * (x % BLOCK_DIMENSION) + y % BLOCK_DIMENSION;
+    }
+    
+    private int validMask(final int blockX, final int blockY) {
+        final int rows =
+                Math.min(BLOCK_DIMENSION, len - blockX * BLOCK_DIMENSION);
+        final int cols =
+                Math.min(BLOCK_DIMENSION, len - blockY * BLOCK_DIMENSION);
+        if (rows == BLOCK_DIMENSION && cols == BLOCK_DIMENSION)
+            return BLOCK_MASK;
+        int mask = 0;
+        for (int i = 0; i < rows; ++i)
+            for (int j = 0; j < cols; ++j)
+                mask |= 1 << (BLOCK_DIMENSION * i + j);
+        return mask;
+    }
+    
+    private int blockIndex(final int blockX, final int blockY) {
+        if (blockX < 0 || blockX >= blocksPerSide
+                || blockY < 0 || blockY >= blocksPerSide) {
+            throw new IllegalArgumentException(
+                    "Block out of bounds: " + new GridCoord(blockX, blockY));
+        }
+        return blockX * blocksPerSide + blockY;
+    }
+    
+    private void checkIndex(final int x, final int y) {
+        if (x < 0 || x >= len || y < 0 || y >= len) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
+        }
+    }
+    
+    private void checkLine(final int index) {
+        if (index < 0 || index >= len) {
+            throw new IllegalArgumentException(
+                    "index out of bounds: " + len);
+        }
+    }
+    
+    
+    
+    
+    private class Itr implements Iterator<Flag> {
+        
+        private final int expectedModCount = modCount;
+        
+        private int cell;
+        
+        
+        
+        
+        public boolean hasNext() {
+            return cell < len * len;
+        }
+        
+        public Flag next() {
+            if (!hasNext())
+                throw new NoSuchElementException(
+                        "iterator has no more elements");
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            final int c = cell++;
+            return getFlag(c / len, c % len);
+        }
+        
+        public void remove() {
+            throw new UnsupportedOperationException("Removal not supported");
+        }
+        
+    }
+    
+}
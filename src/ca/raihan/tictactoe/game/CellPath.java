@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+/**
+ * Packs the path from the top level grid to any grid into one {@code long}.
+ * <p>
+ * Level {@code i} (the children of the top level grid being level 
+ * {@code 0}) takes bits {@code 5 * i} to {@code 5 * i + 4} and holds the 
+ * index of the grid in its parent, as given by 
+ * {@link GridRules#coordToIndex(int, int)}, so any grid up to 
+ * {@link GridRules#MAX_DIMENSION} fits. The top 4 bits hold the length of 
+ * the path, so a path can be up to {@link #MAX_DEPTH} levels deep. 
+ * {@link #ROOT} is the path of the top level grid itself.
+ * <p>
+ * Methods that deal in coordinates take the dimension of the game.
+ * 
+ * @author Pranjal Raihan
+ */
+public final class CellPath extends __UninstantiableImpl {
+    
+    public static final int MAX_DEPTH = 12;
+    
+    public static final long ROOT = 0L;
+    
+    /**
+     * Returned when a path does not exist, for example when 
+     * {@link #neighbour(int, long, int, int)} leaves the board.
+     */
+    public static final long NONE = -1L;
+    
+    private static final int BITS_PER_LEVEL = 5;
+    
+    private static final int DEPTH_SHIFT = 60;
+    
+    private static final long LEVEL_MASK = (1L << BITS_PER_LEVEL) - 1;
+    
+    private static final long INDICES_MASK = (1L << DEPTH_SHIFT) - 1;
+    
+    
+    
+    
+    private CellPath() {
+    }
+    
+    
+    
+    
+    public static int depth(final long path) {
+        return (int) (path >>> DEPTH_SHIFT);
+    }
+    
+    /**
+     * @param path a path
+     * @param level the level, {@code 0} being the children of the top level 
+     * grid
+     * 
+     * @return the index of the grid at {@code level} in its parent
+     */
+    public static int index(final long path, final int level) {
+        return (int) ((path >>> (BITS_PER_LEVEL * level)) & LEVEL_MASK);
+    }
+    
+    public static int x(final int dimension, final long path, 
+            final int level) {
+        return index(path, level) / dimension;
+    }
+    
+    public static int y(final int dimension, final long path, 
+            final int level) {
+        return index(path, level) % dimension;
+    }
+    
+    /**
+     * @param path a path
+     * 
+     * @return the index of the last grid of the path in its parent
+     */
+    public static int last(final long path) {
+        return index(path, depth(path) - 1);
+    }
+    
+    public static long child(final long path, final int index) {
+        final int depth = depth(path);
+        if (depth >= MAX_DEPTH) {
+            throw new IllegalArgumentException("Path too deep: " + depth);
+        }
+        return ((long) (depth + 1) << DEPTH_SHIFT)
+                | (path & INDICES_MASK)
+                | ((long) index << (BITS_PER_LEVEL * depth));
+    }
+    
+    /**
+     * @param path a path
+     * @param level a level below the depth of {@code path}
+     * @param index the new index of the grid at {@code level}
+     * 
+     * @return {@code path} with the grid at {@code level} replaced
+     */
+    public static long withIndex(final long path, final int level, 
+            final int index) {
+        final int shift = BITS_PER_LEVEL * level;
+        return (path & ~(LEVEL_MASK << shift)) | ((long) index << shift);
+    }
+    
+    public static long parent(final long path) {
+        final int depth = depth(path);
+        if (depth == 0) {
+            return NONE;
+        }
+        final int shift = BITS_PER_LEVEL * (depth - 1);
+        return ((long) (depth - 1) << DEPTH_SHIFT)
+                | (path & ((1L << shift) - 1));
+    }
+    
+    /**
+     * @param path a path
+     * @param depth the depth of the ancestor, at most the depth of 
+     * {@code path}
+     * 
+     * @return the first {@code depth} levels of {@code path}
+     */
+    public static long ancestor(final long path, final int depth) {
+        final int shift = BITS_PER_LEVEL * depth;
+        return ((long) depth << DEPTH_SHIFT) | (path & ((1L << shift) - 1));
+    }
+    
+    
+    
+    
+    /**
+     * Row of the last grid of the path when every level of the board is laid 
+     * out flat, as on screen.
+     * 
+     * @param dimension the dimension of the game
+     * @param path a path
+     * 
+     * @return the row, from {@code 0} to {@code dimension^depth - 1}
+     */
+    public static int row(final int dimension, final long path) {
+        final int depth = depth(path);
+        int rv = 0;
+        for (int i = 0; i < depth; ++i) {
+            rv = rv * dimension + x(dimension, path, i);
+        }
+        return rv;
+    }
+    
+    /**
+     * @param dimension the dimension of the game
+     * @param path a path
+     * 
+     * @return the column, from {@code 0} to {@code dimension^depth - 1}
+     * 
+     * @see #row(int, long)
+     */
+    public static int column(final int dimension, final long path) {
+        final int depth = depth(path);
+        int rv = 0;
+        for (int i = 0; i < depth; ++i) {
+            rv = rv * dimension + y(dimension, path, i);
+        }
+        return rv;
+    }
+    
+    /**
+     * Inverse of {@link #row(int, long)} and {@link #column(int, long)}.
+     * 
+     * @param dimension the dimension of the game
+     * @param depth the depth of the path
+     * @param row the flat row
+     * @param column the flat column
+     * 
+     * @return the path, or {@link #NONE} if the cell is outside of the board
+     */
+    public static long of(final int dimension, final int depth, 
+            int row, int column) {
+        if (depth < 0 || depth > MAX_DEPTH || row < 0 || column < 0) {
+            return NONE;
+        }
+        long indices = 0L;
+        for (int i = depth - 1; i >= 0; --i) {
+            final int x = row % dimension;
+            final int y = column % dimension;
+            row /= dimension;
+            column /= dimension;
+            indices |= (long) (dimension * x + y) << (BITS_PER_LEVEL * i);
+        }
+        if (row != 0 || column != 0) {
+            return NONE;
+        }
+        return ((long) depth << DEPTH_SHIFT) | indices;
+    }
+    
+    /**
+     * Moves across the flat board at the depth of {@code path}, crossing the 
+     * borders of parent grids as needed.
+     * 
+     * @param dimension the dimension of the game
+     * @param path a path
+     * @param dx the rows to move by
+     * @param dy the columns to move by
+     * 
+     * @return the neighbouring path, or {@link #NONE} if it is off the board
+     */
+    public static long neighbour(final int dimension, final long path, 
+            final int dx, final int dy) {
+        return of(dimension, depth(path), 
+                row(dimension, path) + dx, column(dimension, path) + dy);
+    }
+    
+    public static String toString(final int dimension, final long path) {
+        if (path == NONE) {
+            return "NONE";
+        }
+        final int depth = depth(path);
+        StringBuilder builder = new StringBuilder("/");
+        for (int i = 0; i < depth; ++i) {
+            builder.append(x(dimension, path, i) + 1)
+                    .append(',')
+                    .append(y(dimension, path, i) + 1)
+                    .append('/');
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * Same as {@link #toString(int, long)} for when the dimension is not 
+     * known, each level is printed as its index.
+     * 
+     * @param path a path
+     * 
+     * @return the path as a string
+     */
+    public static String toString(final long path) {
+        if (path == NONE) {
+            return "NONE";
+        }
+        final int depth = depth(path);
+        StringBuilder builder = new StringBuilder("/");
+        for (int i = 0; i < depth; ++i) {
+            builder.append(index(path, i)).append('/');
+        }
+        return builder.toString();
+    }
+    
+}
@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Everything about a grid of the {@link GridRules#CLASSIC classic} rules 
+ * worked out once for each of its {@code 3^9} states, so a win, a draw or 
+ * the value of a grid under perfect play is a single array lookup. The 
+ * table is filled when this class is first used and takes 77 KB.
+ * <p>
+ * A state is given by the masks of the cells of each player, one bit per 
+ * cell index as in {@link GridRules#coordToIndex(int, int)}. Drawn cells 
+ * block every window through them; where they matter they are looked up 
+ * as cells of the other player, since a drawn cell is as good as lost for 
+ * both.
+ *
+ * @author Pranjal Raihan
+ */
+public final class ClassicTable extends __UninstantiableImpl {
+    
+    /**
+     * Number of states.
+     */
+    public static final int SIZE = 19683;
+    
+    private static final int CELLS = 9;
+    
+    private static final int FULL = (1 << CELLS) - 1;
+    
+    private static final int PLAYER_TWO_SHIFT = 9;
+    
+    private static final int PLAYER_ONE_LINE = 1 << 18;
+    
+    private static final int PLAYER_TWO_LINE = 1 << 19;
+    
+    /**
+     * The player has a window with no cell of the other player.
+     */
+    private static final int PLAYER_ONE_OPEN = 1 << 20;
+    
+    private static final int PLAYER_TWO_OPEN = 1 << 21;
+    
+    /**
+     * Value plus one for player one to move, then for player two.
+     */
+    private static final int PLAYER_ONE_VALUE_SHIFT = 22;
+    
+    private static final int PLAYER_TWO_VALUE_SHIFT = 24;
+    
+    /**
+     * {@code TERNARY[mask]} is the mask read as base 3 digits.
+     */
+    private static final int[] TERNARY = new int[1 << CELLS];
+    
+    /**
+     * {@code LINES[mask]} is if the mask fills a window.
+     */
+    private static final boolean[] LINES = new boolean[1 << CELLS];
+    
+    /**
+     * By state: the cells that fill a window of each player, the windows 
+     * filled and open for each player and the values.
+     */
+    private static final int[] ENTRIES = new int[SIZE];
+    
+    static {
+        GridRules rules = GridRules.CLASSIC;
+        for (int m = 0; m <= FULL; ++m) {
+            for (int i = CELLS - 1; i >= 0; --i) {
+                TERNARY[m] = 3 * TERNARY[m] + ((m >>> i) & 1);
+            }
+            for (int w = 0; w < rules.getWindowCount(); ++w) {
+                final int window = rules.getWindowMask(w);
+                LINES[m] |= (m & window) == window;
+            }
+        }
+        for (int s = 0; s < SIZE; ++s) {
+            int p1 = 0;
+            int p2 = 0;
+            for (int i = 0, n = s; i < CELLS; ++i, n /= 3) {
+                if (n % 3 == 1)
+                    p1 |= 1 << i;
+                else if (n % 3 == 2)
+                    p2 |= 1 << i;
+            }
+            int e = 0;
+            for (int w = 0; w < rules.getWindowCount(); ++w) {
+                final int window = rules.getWindowMask(w);
+                if ((p2 & window) == 0) {
+                    e |= PLAYER_ONE_OPEN;
+                    final int missing = window & ~p1;
+                    if (Integer.bitCount(missing) == 1)
+                        e |= missing;
+                }
+                if ((p1 & window) == 0) {
+                    e |= PLAYER_TWO_OPEN;
+                    final int missing = window & ~p2;
+                    if (Integer.bitCount(missing) == 1)
+                        e |= missing << PLAYER_TWO_SHIFT;
+                }
+            }
+            if (LINES[p1])
+                e |= PLAYER_ONE_LINE;
+            if (LINES[p2])
+                e |= PLAYER_TWO_LINE;
+            ENTRIES[s] = e;
+        }
+        // Values need the flags of every state, children have higher indices
+        for (int s = SIZE - 1; s >= 0; --s) {
+            ENTRIES[s] |= (valueImpl(s, true) + 1) << PLAYER_ONE_VALUE_SHIFT 
+                    | (valueImpl(s, false) + 1) << PLAYER_TWO_VALUE_SHIFT;
+        }
+    }
+    
+    
+    
+    
+    private ClassicTable() {
+    }
+    
+    
+    
+    
+    /**
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two, none of them in {@code p1}
+     * 
+     * @return the index of the state, from {@code 0} to {@link #SIZE} - 1
+     */
+    public static int index(final int p1, final int p2) {
+        Contract.require(((p1 | p2) & ~FULL) == 0 && (p1 & p2) == 0, 
+                "not a state");
+        return TERNARY[p1] + 2 * TERNARY[p2];
+    }
+    
+    /**
+     * @param mask the cells of a player
+     * 
+     * @return if the cells fill a window
+     */
+    public static boolean hasLine(final int mask) {
+        return LINES[mask & FULL];
+    }
+    
+    /**
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two
+     * 
+     * @return the player that filled a window, {@code NONE} if neither 
+     * did, player one if both did
+     */
+    public static Flag getWinner(final int p1, final int p2) {
+        final int e = ENTRIES[index(p1, p2)];
+        if ((e & PLAYER_ONE_LINE) != 0)
+            return Flag.PLAYER_ONE;
+        if ((e & PLAYER_TWO_LINE) != 0)
+            return Flag.PLAYER_TWO;
+        return Flag.NONE;
+    }
+    
+    /**
+     * @param flag the player
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two
+     * @param drawn the drawn cells
+     * 
+     * @return if {@code flag} has a window with no cell of the other player 
+     * and no drawn cell
+     */
+    public static boolean canWin(Flag flag, final int p1, final int p2, 
+            final int drawn) {
+        Contract.nonNull(flag);
+        switch (flag) {
+            case PLAYER_ONE:
+                return (ENTRIES[index(p1, p2 | drawn)] & PLAYER_ONE_OPEN) 
+                        != 0;
+            case PLAYER_TWO:
+                return (ENTRIES[index(p1 | drawn, p2)] & PLAYER_TWO_OPEN) 
+                        != 0;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * A grid is dead, and drawn, as soon as neither player can fill a 
+     * window anymore, the same as {@link GridCollection#isDrawn()}.
+     * 
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two
+     * @param drawn the drawn cells
+     * 
+     * @return if neither player can fill a window anymore
+     */
+    public static boolean isDead(final int p1, final int p2, 
+            final int drawn) {
+        return !canWin(Flag.PLAYER_ONE, p1, p2, drawn) 
+                && !canWin(Flag.PLAYER_TWO, p1, p2, drawn);
+    }
+    
+    /**
+     * The empty cells where {@code flag} fills a window in one move.
+     * 
+     * @param flag the player
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two
+     * @param drawn the drawn cells
+     * 
+     * @return the cells, one bit per cell index
+     */
+    public static int getWinningCells(Flag flag, final int p1, final int p2, 
+            final int drawn) {
+        Contract.nonNull(flag);
+        switch (flag) {
+            case PLAYER_ONE:
+                return ENTRIES[index(p1, p2 | drawn)] & FULL;
+            case PLAYER_TWO:
+                return (ENTRIES[index(p1 | drawn, p2)] 
+                        >>> PLAYER_TWO_SHIFT) & FULL;
+            default:
+                return 0;
+        }
+    }
+    
+    /**
+     * The value of a grid played on its own to the end, by two perfect 
+     * players. A player with a window already filled has won.
+     * 
+     * @param p1 the cells of player one
+     * @param p2 the cells of player two
+     * @param toMove the player to move
+     * 
+     * @return {@code 1} if {@code toMove} wins, {@code 0} for a draw, 
+     * {@code -1} if {@code toMove} loses
+     */
+    public static int getValue(final int p1, final int p2, Flag toMove) {
+        Contract.nonNull(toMove);
+        Contract.require(toMove != Flag.NONE, "toMove is NONE");
+        final int shift = toMove == Flag.PLAYER_ONE ? 
+                PLAYER_ONE_VALUE_SHIFT : PLAYER_TWO_VALUE_SHIFT;
+        return ((ENTRIES[index(p1, p2)] >>> shift) & 0x3) - 1;
+    }
+    
+    
+    
+    
+    /**
+     * Negamax over the children, whose values are already in the table.
+     */
+    private static int valueImpl(final int state, final boolean one) {
+        final int e = ENTRIES[state];
+        if ((e & (one ? PLAYER_ONE_LINE : PLAYER_TWO_LINE)) != 0)
+            return 1;
+        if ((e & (one ? PLAYER_TWO_LINE : PLAYER_ONE_LINE)) != 0)
+            return -1;
+        int best = -2;
+        for (int i = 0, p = 1; i < CELLS; ++i, p *= 3) {
+            if ((state / p) % 3 != 0)
+                continue;
+            final int child = state + (one ? p : 2 * p);
+            final int shift = one ? 
+                    PLAYER_TWO_VALUE_SHIFT : PLAYER_ONE_VALUE_SHIFT;
+            best = Math.max(best, 
+                    -(((ENTRIES[child] >>> shift) & 0x3) - 1));
+            if (best == 1)
+                break;
+        }
+        // A full grid with no window filled
+        return best == -2 ? 0 : best;
+    }
+    
+}
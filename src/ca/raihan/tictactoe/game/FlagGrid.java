@@ -19,6 +19,7 @@ package ca.raihan.tictactoe.game;
 import ca.raihan.util.Contract;
 
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -30,6 +31,12 @@ public class FlagGrid implements Iterable<Flag> {
     
     protected final Flag[][] grid;
     
+    /**
+     * Number of times a flag was set, iterators use it to notice that the 
+     * grid changed under them.
+     */
+    protected int modCount;
+    
     private final Object mutex = new Object();
     
     
@@ -45,23 +52,36 @@ public class FlagGrid implements Iterable<Flag> {
     
     public FlagGrid(FlagGrid copy) {
         Contract.nonNull(copy);
-        final int len = copy.grid.length;
+        final int len = copy.size();
         this.grid = new Flag[len][len];
         for (int i = 0; i < len; ++i) {
             for (int j = 0; j < len; ++j) {
-                this.grid[i][j] = copy.grid[i][j];
+                this.grid[i][j] = copy.getFlag(i, j);
             }
         }
     }
     
+    /**
+     * For subclasses that keep their own storage. No {@code Flag} array is 
+     * allocated, so every public method must be overridden.
+     */
+    protected FlagGrid() {
+        this.grid = null;
+    }
+    
+    
+    
+    
+    public int size() {
+        return grid.length;
+    }
+    
     
     
     
     public Flag[] getRow(final int index) {
         final int len = grid.length;
-        Contract.require(
-                index >= 0 && index < len, 
-                "index out of bounds: " + len);
+        checkLine(index, len);
         synchronized (mutex) {
             return Arrays.copyOf(grid[index], len);
         }
@@ -69,9 +89,7 @@ public class FlagGrid implements Iterable<Flag> {
     
     public Flag[] getColumn(final int index) {
         final int len = grid.length;
-        Contract.require(
-                index >= 0 && index < len, 
-                "index out of bounds: " + len);
+        checkLine(index, len);
         Flag[] colArray = new Flag[len];
         synchronized (mutex) {
             for (int i = 0; i < len; ++i)
@@ -102,9 +120,11 @@ public class FlagGrid implements Iterable<Flag> {
     
     public boolean isFull() {
         synchronized (mutex) {
-            for (Flag flag : this) {
-                if (flag == Flag.NONE) {
-                    return false;
+            for (Flag[] arr : grid) {
+                for (Flag flag : arr) {
+                    if (flag == Flag.NONE) {
+                        return false;
+                    }
                 }
             }
         }
@@ -112,7 +132,7 @@ public class FlagGrid implements Iterable<Flag> {
     }
     
     public Flag getFlag(GridCoord coord) {
-        GridUtils.checkCoord(coord);
+        GridUtils.checkCoord(coord, grid.length);
         synchronized (mutex) {
             return grid[coord.getX()][coord.getY()];
         }
@@ -120,30 +140,37 @@ public class FlagGrid implements Iterable<Flag> {
     
     public void setFlag(GridCoord coord, Flag flag) {
         Contract.nonNull(flag);
-        GridUtils.checkCoord(coord);
+        GridUtils.checkCoord(coord, grid.length);
         synchronized (mutex) {
             grid[coord.getX()][coord.getY()] = flag;
+            modCount++;
         }
     }
     
-    public int played() {
-        int count = 0;
-        for (Flag flag : this) {
-            switch (flag) {
-                case PLAYER_ONE:
-                case PLAYER_TWO:
-                   count++;
-            }
+    public Flag getFlag(final int x, final int y) {
+        final int len = grid.length;
+        if (x < 0 || x >= len || y < 0 || y >= len) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
+        }
+        synchronized (mutex) {
+            return grid[x][y];
         }
-        return count;
+    }
+    
+    public int played() {
+        final int len = grid.length;
+        return len * len - unplayed();
     }
     
     public int unplayed() {
         int count = 0;
-        for (Flag flag : this) {
-            switch (flag) {
-                case NONE:
-                   count++;
+        synchronized (mutex) {
+            for (Flag[] arr : grid) {
+                for (Flag flag : arr) {
+                    if (flag == Flag.NONE)
+                        count++;
+                }
             }
         }
         return count;
@@ -152,8 +179,33 @@ public class FlagGrid implements Iterable<Flag> {
     
     
     
+    /**
+     * Calls {@code action} for every cell, row by row, while holding the 
+     * lock of this grid. Nothing is allocated.
+     * 
+     * @param action what to do with each cell
+     */
+    public void forEachIndexed(IndexedFlagConsumer action) {
+        Contract.nonNull(action);
+        synchronized (mutex) {
+            final int len = grid.length;
+            for (int i = 0; i < len; ++i) {
+                for (int j = 0; j < len; ++j) {
+                    action.accept(i, j, grid[i][j]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The iterator reads the grid as it goes instead of copying it. It is 
+     * fail-fast: if a flag is set after it was created, the next call to 
+     * {@code next()} throws {@code ConcurrentModificationException}.
+     * 
+     * @return an iterator over every cell, row by row
+     */
     public Iterator<Flag> iterator() {
-        return new Itr(grid);
+        return new Itr();
     }
     
     @Override
@@ -166,6 +218,16 @@ public class FlagGrid implements Iterable<Flag> {
         return builder.toString();
     }
     
+    /**
+     * The message is only built when the check fails.
+     */
+    private static void checkLine(final int index, final int len) {
+        if (index < 0 || index >= len) {
+            throw new IllegalArgumentException(
+                    "index out of bounds: " + len);
+        }
+    }
+    
     public static final class ConstGrid extends FlagGrid {
         
         public ConstGrid(FlagGrid copy) {
@@ -183,47 +245,41 @@ public class FlagGrid implements Iterable<Flag> {
     
     
     
-    private static class Itr implements Iterator<Flag> {
-        
-        private final Flag[][] grid;
-        
-        private final int len;
+    /**
+     * Receives a cell of a {@code FlagGrid} with its coordinate.
+     */
+    public static interface IndexedFlagConsumer {
         
-        private int row;
-        private int col;
+        void accept(int x, int y, Flag flag);
         
+    }
+    
+    
+    
+    
+    private class Itr implements Iterator<Flag> {
         
+        private final int len = grid.length;
         
+        private final int expectedModCount = modCount;
         
-        // Assumed square array
-        private Itr(Flag[][] grid) {
-            this.len = grid.length;
-            this.grid = new Flag[len][len];
-            for (int i = 0; i < len; ++i) {
-                for (int j = 0; j < len; ++j) {
-                    this.grid[i][j] = grid[i][j];
-                }
-            }
-        }
+        private int cell;
         
         
         
         
         public boolean hasNext() {
-            return (row == len - 1 ? 
-                    (col < len - 1) : 
-                    row < len);
+            return cell < len * len;
         }
         
         public Flag next() {
             if (!hasNext())
                 throw new NoSuchElementException(
                         "iterator has no more elements");
-            if (col == len - 1) {
-                col = -1;
-                row++;
-            }
-            return grid[row][++col];
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            final int c = cell++;
+            return grid[c / len][c % len];
         }
         
         public void remove() {
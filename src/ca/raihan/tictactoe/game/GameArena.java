@@ -0,0 +1,576 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import java.util.Arrays;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Keeps many games out of the Java heap, for servers that host a great 
+ * number of them at once. Every game is a fixed size slot of {@code int}s 
+ * in direct memory, laid out as in {@link PackedGames}: the result, side, 
+ * active index and move count, then the masks and open count of each grid. 
+ * The games are played right on their slot, nothing is copied to the heap 
+ * and the garbage collector only sees a few arrays, whatever the number of 
+ * games.
+ * <p>
+ * The memory is reserved in chunks of a power of two number of slots. A 
+ * game is known by the handle {@link #allocate()} returns, which stays 
+ * valid until the game is {@link #free(long) freed}, even when 
+ * {@link #compact()} moves its slot. Using a handle after it was freed 
+ * throws, even when the handle was given out again.
+ * <p>
+ * Different threads can use the arena at once. A game is locked by one of 
+ * a stripe of locks, picked by its handle, so games under different locks 
+ * are played in parallel. {@link #allocate()} and {@link #free(long)} 
+ * also lock the arena and go one at a time. Only {@link #compact()}, and 
+ * growing the arena, lock every game.
+ *
+ * @author Pranjal Raihan
+ */
+public final class GameArena extends PackedGames {
+    
+    /**
+     * Bytes of a chunk when the number of slots per chunk is not given.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    
+    /**
+     * Number of locks the games are spread over, a power of two.
+     */
+    private static final int STRIPES = 64;
+    
+    
+    
+    
+    /**
+     * Guards the free slots and handles, taken before any stripe.
+     */
+    private final Object mutex = new Object();
+    
+    /**
+     * The games with handle index {@code h} are locked by stripe 
+     * {@code h & (STRIPES - 1)}. The entries of a handle and the slot of 
+     * its game are only used under its stripe, the arrays of chunks and 
+     * handles are only replaced under every stripe.
+     */
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    
+    /**
+     * {@code int}s of a slot.
+     */
+    private final int slotSize;
+    
+    private final int chunkShift;
+    
+    private final int chunkMask;
+    
+    private IntBuffer[] chunks = new IntBuffer[0];
+    
+    /**
+     * Number of slots below which every slot is in use or free.
+     */
+    private int top;
+    
+    /**
+     * Free slots below {@code top}.
+     */
+    private int[] freeSlots = new int[0];
+    
+    private int freeSlotCount;
+    
+    /**
+     * The slot of each handle index, {@code -1} if it has no game.
+     */
+    private int[] slotOfHandle = new int[0];
+    
+    private int[] generations = new int[0];
+    
+    /**
+     * The handle index of each slot below {@code top}, {@code -1} if free.
+     */
+    private int[] handleOfSlot = new int[0];
+    
+    private int handleCount;
+    
+    private int[] freeHandles = new int[0];
+    
+    private int freeHandleCount;
+    
+    
+    
+    
+    /**
+     * @param rules the rules of every game
+     * @param depth the depth of every game, at least {@code 1}
+     */
+    public GameArena(GridRules rules, final int depth) {
+        this(rules, depth, 0);
+    }
+    
+    /**
+     * @param rules the rules of every game
+     * @param depth the depth of every game, at least {@code 1}
+     * @param slotsPerChunk the number of games a chunk holds, rounded up 
+     * to a power of two, {@code 0} for chunks of about a megabyte
+     */
+    public GameArena(GridRules rules, final int depth, 
+            final int slotsPerChunk) {
+        super(rules, depth);
+        Contract.require(slotsPerChunk >= 0, "slotsPerChunk < 0");
+        Contract.require(grids <= (Integer.MAX_VALUE - GAME_FIELDS) 
+                / GRID_FIELDS / 4, "depth too large");
+        slotSize = GAME_FIELDS + GRID_FIELDS * grids;
+        int slots = slotsPerChunk;
+        if (slots == 0) {
+            slots = Math.max(1, DEFAULT_CHUNK_SIZE / (4 * slotSize));
+        }
+        slots = Math.min(Integer.highestOneBit(
+                Integer.MAX_VALUE / (4 * slotSize)), slots);
+        if (Integer.bitCount(slots) != 1) {
+            slots = Integer.highestOneBit(slots) << 1;
+        }
+        chunkShift = Integer.numberOfTrailingZeros(slots);
+        chunkMask = slots - 1;
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+    
+    
+    
+    
+    /**
+     * @return the number of {@code int}s of a game
+     */
+    public int getSlotSize() {
+        return slotSize;
+    }
+    
+    /**
+     * @return the number of games a chunk holds
+     */
+    public int getSlotsPerChunk() {
+        return chunkMask + 1;
+    }
+    
+    /**
+     * @return the number of games held
+     */
+    public int size() {
+        synchronized (mutex) {
+            return top - freeSlotCount;
+        }
+    }
+    
+    /**
+     * @return the number of games the reserved memory can hold
+     */
+    public int getCapacity() {
+        synchronized (mutex) {
+            return chunks.length << chunkShift;
+        }
+    }
+    
+    /**
+     * @return the bytes of direct memory reserved
+     */
+    public long getReservedBytes() {
+        return 4L * slotSize * getCapacity();
+    }
+    
+    /**
+     * Adds a game at its start.
+     * 
+     * @return the handle of the game
+     */
+    public long allocate() {
+        synchronized (mutex) {
+            final int slot = allocateSlotImpl();
+            // No one else uses a slot until it has a handle
+            resetImpl(slot);
+            return handleImpl(slot);
+        }
+    }
+    
+    /**
+     * Adds a game at {@code state}. Its move count starts over.
+     * 
+     * @param state the state of the game
+     * 
+     * @return the handle of the game
+     * 
+     * @throws IllegalArgumentException if the rules or depth of 
+     * {@code state} are not those of this arena
+     */
+    public long allocate(GameState state) {
+        Contract.nonNull(state);
+        synchronized (mutex) {
+            final int slot = allocateSlotImpl();
+            try {
+                loadImpl(slot, state);
+            } catch (IllegalArgumentException ex) {
+                pushFreeSlotImpl(slot);
+                throw ex;
+            }
+            return handleImpl(slot);
+        }
+    }
+    
+    /**
+     * Removes a game, its handle can no longer be used.
+     * 
+     * @param handle the handle of the game
+     */
+    public void free(final long handle) {
+        synchronized (mutex) {
+            final int h = (int) handle;
+            final int slot;
+            ReentrantLock lock = lockImpl(handle);
+            try {
+                slot = slotImpl(handle);
+                slotOfHandle[h] = -1;
+                generations[h]++;
+            } finally {
+                lock.unlock();
+            }
+            handleOfSlot[slot] = -1;
+            if (freeHandleCount == freeHandles.length) {
+                freeHandles = Arrays.copyOf(freeHandles, 
+                        Math.max(16, 2 * freeHandleCount));
+            }
+            freeHandles[freeHandleCount++] = h;
+            pushFreeSlotImpl(slot);
+        }
+    }
+    
+    /**
+     * Moves the games down to the lowest slots, in order, and gives back 
+     * the chunks that are no longer used. The handles do not change. Every 
+     * game is locked until it is done.
+     * 
+     * @return the number of games moved
+     */
+    public int compact() {
+        synchronized (mutex) {
+            lockAllImpl();
+            try {
+                return compactImpl();
+            } finally {
+                unlockAllImpl();
+            }
+        }
+    }
+    
+    /**
+     * Plays a move in a game.
+     * 
+     * @param handle the handle of the game
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return {@code false} if the move is not legal, in which case nothing 
+     * changes
+     */
+    public boolean play(final long handle, final long path) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            final int slot = slotImpl(handle);
+            if (!isLegalImpl(slot, path)) {
+                return false;
+            }
+            playImpl(slot, path);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public boolean isLegal(final long handle, final long path) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return isLegalImpl(slotImpl(handle), path);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @param handle the handle of the game
+     * @param buffer where to put the paths, must be big enough for every 
+     * legal move (see {@link #legalMoveCount(long)})
+     * 
+     * @return the number of paths put in {@code buffer}
+     */
+    public int legalMoves(final long handle, long[] buffer) {
+        Contract.nonNull(buffer);
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return legalMovesImpl(slotImpl(handle), buffer);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int legalMoveCount(final long handle) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return legalMoveCountImpl(slotImpl(handle));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public boolean isOver(final long handle) {
+        return gameFieldImpl(handle, GAME_RESULT) != PLAYING;
+    }
+    
+    /**
+     * @param handle the handle of the game
+     * 
+     * @return the flag of the player that won the game, {@code NONE} while 
+     * it is not over or if it was drawn
+     */
+    public Flag getWinner(final long handle) {
+        return winnerImpl(gameFieldImpl(handle, GAME_RESULT));
+    }
+    
+    public Flag getCurrentFlag(final long handle) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return currentFlagImpl(slotImpl(handle));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @param handle the handle of the game
+     * 
+     * @return the index of the top level child the current player must 
+     * play in, or {@link HeadlessGameManager#FREE}
+     */
+    public int getActiveIndex(final long handle) {
+        return gameFieldImpl(handle, GAME_ACTIVE);
+    }
+    
+    public int getMoveCount(final long handle) {
+        return gameFieldImpl(handle, GAME_MOVES);
+    }
+    
+    /**
+     * @param handle the handle of the game
+     * 
+     * @return the state of the game, without history
+     */
+    public GameState getState(final long handle) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return stateImpl(slotImpl(handle));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    
+    
+    @Override
+    int getGrid(final int game, final int grid, final int field) {
+        return chunks[game >>> chunkShift].get((game & chunkMask) * slotSize 
+                + GAME_FIELDS + GRID_FIELDS * grid + field);
+    }
+    
+    @Override
+    void setGrid(final int game, final int grid, final int field, 
+            final int value) {
+        chunks[game >>> chunkShift].put((game & chunkMask) * slotSize 
+                + GAME_FIELDS + GRID_FIELDS * grid + field, value);
+    }
+    
+    @Override
+    int getGame(final int game, final int field) {
+        return chunks[game >>> chunkShift].get(
+                (game & chunkMask) * slotSize + field);
+    }
+    
+    @Override
+    void setGame(final int game, final int field, final int value) {
+        chunks[game >>> chunkShift].put(
+                (game & chunkMask) * slotSize + field, value);
+    }
+    
+    /**
+     * @return the stripe of {@code handle}, locked
+     */
+    private ReentrantLock lockImpl(final long handle) {
+        ReentrantLock rv = stripes[(int) handle & (STRIPES - 1)];
+        rv.lock();
+        return rv;
+    }
+    
+    private void lockAllImpl() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+    }
+    
+    private void unlockAllImpl() {
+        for (int i = STRIPES - 1; i >= 0; --i) {
+            stripes[i].unlock();
+        }
+    }
+    
+    private int gameFieldImpl(final long handle, final int field) {
+        ReentrantLock lock = lockImpl(handle);
+        try {
+            return getGame(slotImpl(handle), field);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Callers hold the stripe of {@code handle}.
+     * 
+     * @return the slot of a live game
+     * 
+     * @throws IllegalArgumentException if the handle is not one of a live 
+     * game
+     */
+    private int slotImpl(final long handle) {
+        final int h = (int) handle;
+        if (h < 0 || h >= slotOfHandle.length || slotOfHandle[h] == -1 
+                || generations[h] != (int) (handle >>> 32)) {
+            throw new IllegalArgumentException("Invalid handle: " + handle);
+        }
+        return slotOfHandle[h];
+    }
+    
+    /**
+     * Gives a handle to a slot taken by {@link #allocateSlotImpl()}.
+     */
+    private long handleImpl(final int slot) {
+        int h;
+        if (freeHandleCount > 0) {
+            h = freeHandles[--freeHandleCount];
+        } else {
+            if (handleCount == slotOfHandle.length) {
+                final int n = Math.max(16, 2 * handleCount);
+                lockAllImpl();
+                try {
+                    slotOfHandle = Arrays.copyOf(slotOfHandle, n);
+                    Arrays.fill(slotOfHandle, handleCount, n, -1);
+                    generations = Arrays.copyOf(generations, n);
+                } finally {
+                    unlockAllImpl();
+                }
+            }
+            h = handleCount++;
+        }
+        handleOfSlot[slot] = h;
+        final long rv = ((long) generations[h] << 32) | h;
+        ReentrantLock lock = lockImpl(rv);
+        try {
+            slotOfHandle[h] = slot;
+        } finally {
+            lock.unlock();
+        }
+        return rv;
+    }
+    
+    private int allocateSlotImpl() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (top == chunks.length << chunkShift) {
+            final int slots = chunkMask + 1;
+            if (chunks.length == Integer.MAX_VALUE >>> chunkShift) {
+                throw new IllegalStateException("Arena full");
+            }
+            IntBuffer chunk = ByteBuffer
+                    .allocateDirect(4 * slotSize * slots)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+            lockAllImpl();
+            try {
+                chunks = Arrays.copyOf(chunks, chunks.length + 1);
+                chunks[chunks.length - 1] = chunk;
+            } finally {
+                unlockAllImpl();
+            }
+            handleOfSlot = Arrays.copyOf(handleOfSlot, 
+                    chunks.length << chunkShift);
+            Arrays.fill(handleOfSlot, top, handleOfSlot.length, -1);
+        }
+        return top++;
+    }
+    
+    private void pushFreeSlotImpl(final int slot) {
+        if (freeSlotCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, 
+                    Math.max(16, 2 * freeSlotCount));
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+    
+    /**
+     * Callers hold every stripe.
+     */
+    private int compactImpl() {
+        int moved = 0;
+        int to = 0;
+        for (int from = 0; from < top; ++from) {
+            final int h = handleOfSlot[from];
+            if (h == -1)
+                continue;
+            if (from != to) {
+                copySlotImpl(from, to);
+                handleOfSlot[to] = h;
+                slotOfHandle[h] = to;
+                moved++;
+            }
+            to++;
+        }
+        Arrays.fill(handleOfSlot, to, top, -1);
+        top = to;
+        freeSlotCount = 0;
+        final int used = (top + chunkMask) >>> chunkShift;
+        if (used < chunks.length) {
+            // Direct memory is given back when the buffers are collected
+            chunks = Arrays.copyOf(chunks, used);
+            handleOfSlot = Arrays.copyOf(handleOfSlot, used << chunkShift);
+        }
+        return moved;
+    }
+    
+    private void copySlotImpl(final int from, final int to) {
+        IntBuffer src = chunks[from >>> chunkShift];
+        IntBuffer dst = chunks[to >>> chunkShift];
+        final int s = (from & chunkMask) * slotSize;
+        final int d = (to & chunkMask) * slotSize;
+        for (int i = 0; i < slotSize; ++i) {
+            dst.put(d + i, src.get(s + i));
+        }
+    }
+    
+}
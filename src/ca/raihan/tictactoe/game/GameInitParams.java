@@ -40,16 +40,48 @@ public class GameInitParams<P1 extends Player, P2 extends Player> {
     
     private final Config config;
     
+    private final int dimension;
+    
+    private final int winLength;
+    
     
     
     
     public GameInitParams(P1 p1, Image p1Image, P2 p2, Image p2Image, 
             Config cfg) {
+        this(p1, p1Image, p2, p2Image, cfg, 
+                GridConsts.DIMENSION, GridConsts.DIMENSION);
+    }
+    
+    /**
+     * @param p1 the first player
+     * @param p1Image the image of the first player
+     * @param p2 the second player
+     * @param p2Image the image of the second player
+     * @param cfg the configuration
+     * @param dimension the number of rows and columns of every grid
+     * @param winLength the number of flags in a row that win a grid
+     * 
+     * @see GridRules
+     */
+    public GameInitParams(P1 p1, Image p1Image, P2 p2, Image p2Image, 
+            Config cfg, int dimension, int winLength) {
         this.player1 = Contract.nonNull(p1);
         this.player2 = Contract.nonNull(p2);
         this.player1Image = p1Image;
         this.player2Image = p2Image;
         this.config = cfg;
+        this.dimension = dimension;
+        this.winLength = winLength;
+    }
+    
+    public GameInitParams(P1 p1, P2 p2, Config cfg) {
+        this(p1, null, p2, null, cfg);
+    }
+    
+    public GameInitParams(P1 p1, P2 p2, Config cfg, 
+            int dimension, int winLength) {
+        this(p1, null, p2, null, cfg, dimension, winLength);
     }
     
     
@@ -75,4 +107,12 @@ public class GameInitParams<P1 extends Player, P2 extends Player> {
         return config;
     }
     
+    public int getDimension() {
+        return dimension;
+    }
+    
+    public int getWinLength() {
+        return winLength;
+    }
+    
 }
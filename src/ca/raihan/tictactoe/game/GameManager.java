@@ -38,6 +38,30 @@ public interface GameManager<T> {
     
     TurnManager getTurnManager();
     
+    /**
+     * @return the {@link CellPath} of every cell the current player can play
+     */
+    long[] legalMoves();
+    
+    /**
+     * Takes back the last move played.
+     * 
+     * @return {@code false} if there is no move to take back
+     */
+    boolean undo();
+    
+    /**
+     * Plays the last move taken back by {@link #undo()} again.
+     * 
+     * @return {@code false} if there is no move to play again
+     */
+    boolean redo();
+    
+    /**
+     * @return the size of the grids and what wins them
+     */
+    GridRules getRules();
+    
     Config getConfig();
     
     <U> U getResource(String key, Class<U> type);
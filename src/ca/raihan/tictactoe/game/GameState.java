@@ -0,0 +1,646 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.Arrays;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.players.Player;
+
+/**
+ * Immutable state of a game. Playing a move returns a new state that shares 
+ * every grid the move did not touch with this one, so only the 
+ * {@code depth} grids on the path of the move are copied. A state keeps the 
+ * one it was played from, which makes undo free and lets any number of 
+ * variations branch off a common history.
+ * <p>
+ * The rules are the same as those of {@link HeadlessGameManager} and so is 
+ * the {@link #getHash() hash}: the same moves played on either give the 
+ * same {@link Zobrist} key. {@link #of(HeadlessGameManager)} takes a state 
+ * from a game being played, {@link GameStateCodec} stores one in a few 
+ * bytes.
+ *
+ * @author Pranjal Raihan
+ */
+public final class GameState {
+    
+    private final GridRules rules;
+    
+    private final int depth;
+    
+    private final Node root;
+    
+    private final Flag winner;
+    
+    private final boolean over;
+    
+    private final Flag currentFlag;
+    
+    private final int active;
+    
+    private final long hash;
+    
+    private final GameState previous;
+    
+    private final long lastMove;
+    
+    private final int moveCount;
+    
+    
+    
+    
+    private GameState(GridRules rules, int depth, Node root, Flag winner, 
+            boolean over, Flag currentFlag, int active, long hash, 
+            GameState previous, long lastMove) {
+        this.rules = rules;
+        this.depth = depth;
+        this.root = root;
+        this.winner = winner;
+        this.over = over;
+        this.currentFlag = currentFlag;
+        this.active = active;
+        this.hash = hash;
+        this.previous = previous;
+        this.lastMove = lastMove;
+        this.moveCount = previous == null ? 0 : previous.moveCount + 1;
+    }
+    
+    /**
+     * Creates the state of a game no one has played yet. Empty grids are 
+     * shared, so this takes {@code O(depth)} memory.
+     * 
+     * @param rules the rules of the game
+     * @param depth the number of nested levels
+     * 
+     * @return the initial state, player one to move
+     */
+    public static GameState initial(GridRules rules, final int depth) {
+        Contract.nonNull(rules);
+        Contract.require(depth >= 0, "depth < 0");
+        Contract.require(depth <= CellPath.MAX_DEPTH, "depth too large");
+        return new GameState(rules, depth, emptyNodesImpl(rules, depth)[depth], 
+                Flag.NONE, false, Flag.PLAYER_ONE, HeadlessGameManager.FREE, 
+                0L, null, CellPath.NONE);
+    }
+    
+    /**
+     * Takes the state of a game being played. The state has no history: 
+     * it is as if the game had started there. Grids of a lazily created 
+     * game that were never played in are shared, as in 
+     * {@link #initial(GridRules, int)}.
+     * 
+     * @param game the game
+     * 
+     * @return the state of {@code game}
+     * 
+     * @throws IllegalStateException if the grids of {@code game} were not 
+     * created
+     */
+    public static GameState of(HeadlessGameManager game) {
+        Contract.nonNull(game);
+        synchronized (game.mutex) {
+            HeadlessGrid grid = game.getGridImpl();
+            if (grid == null) {
+                throw new IllegalStateException("Grids not created");
+            }
+            final GridRules rules = game.getRules();
+            final int depth = game.getDepthImpl();
+            Node[] empty = emptyNodesImpl(rules, depth);
+            Flag winner = grid.getPlayer() == null ? 
+                    Flag.NONE : game.getFlagOf(grid.getPlayer());
+            Node root = depth == 0 || winner != Flag.NONE ? 
+                    empty[depth] : nodeOfImpl(game, grid, depth, empty);
+            return restoreImpl(rules, depth, root, winner, 
+                    grid.isStateLockedImpl(), 
+                    game.getTurnManager().getCurrentFlag(), 
+                    game.getActiveIndex());
+        }
+    }
+    
+    
+    
+    
+    public GridRules getRules() {
+        return rules;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public boolean isOver() {
+        return over;
+    }
+    
+    /**
+     * @return if the game is over and no one won it
+     */
+    public boolean isDraw() {
+        return over && winner == Flag.NONE;
+    }
+    
+    /**
+     * @return the flag of the player that won the game, {@code NONE} while
+     * the game is not over or if it was drawn
+     */
+    public Flag getWinner() {
+        return winner;
+    }
+    
+    public Flag getCurrentFlag() {
+        return currentFlag;
+    }
+    
+    /**
+     * @return the index of the top level child the current player must play 
+     * in, or {@link HeadlessGameManager#FREE}
+     */
+    public int getActiveIndex() {
+        return active;
+    }
+    
+    /**
+     * @return the {@link Zobrist} hash of this state
+     */
+    public long getHash() {
+        return hash;
+    }
+    
+    /**
+     * @return the state this one was played from, {@code null} for the 
+     * initial state
+     */
+    public GameState getPrevious() {
+        return previous;
+    }
+    
+    /**
+     * @return the {@link CellPath} of the move that led to this state, 
+     * {@link CellPath#NONE} for the initial state
+     */
+    public long getLastMove() {
+        return lastMove;
+    }
+    
+    public int getMoveCount() {
+        return moveCount;
+    }
+    
+    /**
+     * Returns the flag that owns the grid at {@code path}: the flag of the 
+     * grid itself or, if it was won as part of a bigger grid, the flag of 
+     * that grid.
+     * 
+     * @param path the {@link CellPath} of a grid
+     * 
+     * @return the owning flag, or {@code NONE}
+     */
+    public Flag getFlag(final long path) {
+        if (path == CellPath.NONE || CellPath.depth(path) > depth) {
+            return Flag.NONE;
+        }
+        if (winner != Flag.NONE) {
+            return winner;
+        }
+        final int length = CellPath.depth(path);
+        Node node = root;
+        for (int i = 0; i < length; ++i) {
+            final int cell = CellPath.index(path, i);
+            if (cell >= rules.getCellCount()) {
+                return Flag.NONE;
+            }
+            Flag f = node.getFlag(cell);
+            if (f != Flag.NONE || node.children == null 
+                    || node.children[cell] == null) {
+                return f;
+            }
+            node = node.children[cell];
+        }
+        return Flag.NONE;
+    }
+    
+    /**
+     * @param path the {@link CellPath} of a cell
+     * 
+     * @return if the current player can play {@code path}
+     */
+    public boolean isLegal(final long path) {
+        return validate(path) == MoveStatus.OK;
+    }
+    
+    /**
+     * Same as {@link #isLegal(long)}, telling why a move cannot be played. 
+     * Nothing is thrown or allocated, whatever {@code path} is.
+     * 
+     * @param path the {@link CellPath} of a cell
+     * 
+     * @return {@link MoveStatus#OK} if the current player can play 
+     * {@code path}
+     */
+    public MoveStatus validate(final long path) {
+        if (over) {
+            return MoveStatus.GAME_OVER;
+        }
+        if (path == CellPath.NONE || CellPath.depth(path) != depth) {
+            return MoveStatus.OUT_OF_BOUNDS;
+        }
+        final int cells = rules.getCellCount();
+        for (int i = 0; i < depth; ++i) {
+            if (CellPath.index(path, i) >= cells) {
+                return MoveStatus.OUT_OF_BOUNDS;
+            }
+        }
+        if (depth > 0 && active != HeadlessGameManager.FREE 
+                && CellPath.index(path, 0) != active) {
+            return MoveStatus.WRONG_SUBGRID;
+        }
+        Node node = root;
+        for (int i = 0; i < depth; ++i) {
+            final int cell = CellPath.index(path, i);
+            if (node.isClosed(cell)) {
+                return MoveStatus.OCCUPIED;
+            }
+            if (node.children != null) {
+                node = node.children[cell];
+            }
+        }
+        return MoveStatus.OK;
+    }
+    
+    /**
+     * Plays the current player on {@code path}. This state is not changed.
+     * 
+     * @param path the {@link CellPath} of a cell
+     * 
+     * @return the state after the move
+     * 
+     * @throws IllegalArgumentException if the move is not legal
+     */
+    public GameState play(final long path) {
+        if (!isLegal(path)) {
+            throw new IllegalArgumentException(
+                    "Illegal move: " + CellPath.toString(
+                            rules.getDimension(), path));
+        }
+        final Flag flag = currentFlag;
+        int newActive = active;
+        Flag newWinner = Flag.NONE;
+        boolean newOver = false;
+        Node newRoot;
+        
+        if (depth == 0) {
+            newRoot = root;
+            newWinner = flag;
+            newOver = true;
+        } else {
+            Node[] nodes = new Node[depth];
+            nodes[0] = root;
+            for (int i = 1; i < depth; ++i) {
+                nodes[i] = nodes[i - 1].children[CellPath.index(path, i - 1)];
+            }
+            // Copies the grids on the path bottom up, closing each one for 
+            // as long as the one below it was won or drawn
+            Node copy = null;
+            boolean won = true;
+            boolean drawn = false;
+            for (int i = depth - 1; i >= 0; --i) {
+                final int cell = CellPath.index(path, i);
+                if (won || drawn) {
+                    // The child at depth i + 1 was closed
+                    if (i + 1 > 1) {
+                        newActive = cell;
+                    }
+                    copy = won ? 
+                            nodes[i].accept(cell, flag, Zobrist.key(
+                                    CellPath.ancestor(path, i + 1), flag)) : 
+                            nodes[i].draw(cell, copy);
+                    won = won && copy.isWonBy(rules, cell, flag);
+                    drawn = !won && copy.isDrawn(rules);
+                } else {
+                    copy = nodes[i].withChild(cell, copy);
+                }
+            }
+            newRoot = copy;
+            if (won) {
+                newWinner = flag;
+            }
+            newOver = won || drawn;
+        }
+        
+        if (newActive != HeadlessGameManager.FREE 
+                && (newOver || newRoot.isClosed(newActive))) {
+            newActive = HeadlessGameManager.FREE;
+        }
+        final Flag next = 
+                flag == Flag.PLAYER_ONE ? Flag.PLAYER_TWO : Flag.PLAYER_ONE;
+        return new GameState(rules, depth, newRoot, newWinner, newOver, 
+                next, newActive, 
+                hashImpl(newRoot, newWinner, next, newActive), this, path);
+    }
+    
+    /**
+     * @return the paths of every cell the current player can play
+     */
+    public long[] legalMoves() {
+        long[] rv = new long[legalMovesImpl(null)];
+        legalMovesImpl(rv);
+        return rv;
+    }
+    
+    /**
+     * @return the number of cells the current player can play
+     */
+    public int legalMoveCount() {
+        return legalMovesImpl(null);
+    }
+    
+    /**
+     * Same as {@link #legalMoves()} without allocating.
+     * 
+     * @param buffer where to put the paths, must be big enough for every 
+     * legal move
+     * 
+     * @return the number of paths put in {@code buffer}
+     */
+    public int legalMoves(long[] buffer) {
+        return legalMovesImpl(Contract.nonNull(buffer));
+    }
+    
+    
+    
+    
+    Node getRootImpl() {
+        return root;
+    }
+    
+    /**
+     * Creates a state with no history from its parts, working out its hash.
+     * 
+     * @param root the top level grid, {@code null} when {@code depth} is 
+     * {@code 0}
+     */
+    static GameState restoreImpl(GridRules rules, final int depth, 
+            Node root, Flag winner, final boolean over, Flag currentFlag, 
+            final int active) {
+        return new GameState(rules, depth, root, winner, over, currentFlag, 
+                active, hashImpl(root, winner, currentFlag, active), null, 
+                CellPath.NONE);
+    }
+    
+    /**
+     * @return the empty grid of every height up to {@code depth}, each one 
+     * sharing the one below it
+     */
+    static Node[] emptyNodesImpl(GridRules rules, final int depth) {
+        Node[] rv = new Node[depth + 1];
+        for (int h = 1; h <= depth; ++h) {
+            Node[] children = null;
+            if (h > 1) {
+                children = new Node[rules.getCellCount()];
+                Arrays.fill(children, rv[h - 1]);
+            }
+            rv[h] = new Node(0, 0, 0, 0L, children);
+        }
+        return rv;
+    }
+    
+    private static long hashImpl(Node root, Flag winner, Flag currentFlag, 
+            final int active) {
+        long rv = winner != Flag.NONE || root == null ? 
+                Zobrist.key(CellPath.ROOT, winner) : 
+                root.keys;
+        if (currentFlag == Flag.PLAYER_TWO) {
+            rv ^= Zobrist.SIDE_TO_MOVE;
+        }
+        return rv ^ Zobrist.active(active);
+    }
+    
+    private static Node nodeOfImpl(HeadlessGameManager game, 
+            HeadlessGrid grid, final int height, Node[] empty) {
+        if (grid.isVirtualImpl()) {
+            return empty[height];
+        }
+        final int cells = game.getRules().getCellCount();
+        int p1 = 0;
+        int p2 = 0;
+        int drawn = 0;
+        Node[] children = height > 1 ? new Node[cells] : null;
+        for (int i = 0; i < cells; ++i) {
+            HeadlessGrid child = grid.getChildImpl(i);
+            Player p = child.getPlayer();
+            if (p != null) {
+                if (game.getFlagOf(p) == Flag.PLAYER_ONE) {
+                    p1 |= 1 << i;
+                } else {
+                    p2 |= 1 << i;
+                }
+                continue;
+            }
+            if (child.isStateDrawnImpl()) {
+                drawn |= 1 << i;
+            }
+            if (children != null) {
+                children[i] = nodeOfImpl(game, child, height - 1, empty);
+            }
+        }
+        return Node.of(grid.getPathImpl(), p1, p2, drawn, children);
+    }
+    
+    private int legalMovesImpl(long[] buffer) {
+        if (over) {
+            return 0;
+        }
+        if (depth == 0) {
+            if (buffer != null)
+                buffer[0] = CellPath.ROOT;
+            return 1;
+        }
+        if (active == HeadlessGameManager.FREE) {
+            return collectImpl(root, depth, CellPath.ROOT, buffer, 0);
+        }
+        // Only ever sent somewhere when depth > 1
+        return collectImpl(root.children[active], depth - 1, 
+                CellPath.child(CellPath.ROOT, active), buffer, 0);
+    }
+    
+    private int collectImpl(Node node, final int height, final long path, 
+            long[] buffer, int count) {
+        final int full = (1 << rules.getCellCount()) - 1;
+        for (int open = full & ~(node.p1 | node.p2 | node.drawn); open != 0; 
+                open &= open - 1) {
+            final int cell = Integer.numberOfTrailingZeros(open);
+            final long child = CellPath.child(path, cell);
+            if (height == 1) {
+                if (buffer != null)
+                    buffer[count] = child;
+                count++;
+            } else {
+                count = collectImpl(node.children[cell], height - 1, child, 
+                        buffer, count);
+            }
+        }
+        return count;
+    }
+    
+    
+    
+    
+    /**
+     * A grid that is not a cell. The flags of its children are kept as one 
+     * bit per child in {@code p1} and {@code p2}, drawn children in 
+     * {@code drawn}; the children themselves are only kept while they have 
+     * children of their own and are not won.
+     */
+    static final class Node {
+        
+        final int p1;
+        
+        final int p2;
+        
+        final int drawn;
+        
+        /**
+         * The XOR of the {@link Zobrist} keys of every accepted grid below 
+         * this one, so a won grid takes them out of the hash in 
+         * {@code O(1)}.
+         */
+        final long keys;
+        
+        final Node[] children;
+        
+        
+        
+        
+        private Node(int p1, int p2, int drawn, long keys, Node[] children) {
+            this.p1 = p1;
+            this.p2 = p2;
+            this.drawn = drawn;
+            this.keys = keys;
+            this.children = children;
+        }
+        
+        /**
+         * Creates a grid from its parts, working out its keys.
+         * 
+         * @param path the {@link CellPath} of the grid
+         * @param children the children, or {@code null} for a grid of cells
+         */
+        static Node of(final long path, int p1, int p2, int drawn, 
+                Node[] children) {
+            long keys = 0L;
+            for (int m = p1; m != 0; m &= m - 1) {
+                keys ^= Zobrist.key(CellPath.child(
+                        path, Integer.numberOfTrailingZeros(m)), 
+                        Flag.PLAYER_ONE);
+            }
+            for (int m = p2; m != 0; m &= m - 1) {
+                keys ^= Zobrist.key(CellPath.child(
+                        path, Integer.numberOfTrailingZeros(m)), 
+                        Flag.PLAYER_TWO);
+            }
+            if (children != null) {
+                for (Node c : children) {
+                    if (c != null)
+                        keys ^= c.keys;
+                }
+            }
+            return new Node(p1, p2, drawn, keys, children);
+        }
+        
+        
+        
+        
+        private Flag getFlag(final int cell) {
+            final int bit = 1 << cell;
+            if ((p1 & bit) != 0)
+                return Flag.PLAYER_ONE;
+            if ((p2 & bit) != 0)
+                return Flag.PLAYER_TWO;
+            return Flag.NONE;
+        }
+        
+        private boolean isClosed(final int cell) {
+            return ((p1 | p2 | drawn) & (1 << cell)) != 0;
+        }
+        
+        /**
+         * The keys of what was played in the child leave with it.
+         * 
+         * @param key the {@link Zobrist} key of {@code flag} owning the child
+         */
+        private Node accept(final int cell, Flag flag, final long key) {
+            final int bit = 1 << cell;
+            final long k = keys ^ key ^ childKeys(cell);
+            Node[] c = withoutChild(cell);
+            return flag == Flag.PLAYER_ONE ? 
+                    new Node(p1 | bit, p2, drawn, k, c) : 
+                    new Node(p1, p2 | bit, drawn, k, c);
+        }
+        
+        /**
+         * A drawn child is kept, so the flags in it can still be read.
+         */
+        private Node draw(final int cell, Node child) {
+            Node[] c = children;
+            long k = keys;
+            if (c != null) {
+                k ^= childKeys(cell) ^ child.keys;
+                c = c.clone();
+                c[cell] = child;
+            }
+            return new Node(p1, p2, drawn | (1 << cell), k, c);
+        }
+        
+        private long childKeys(final int cell) {
+            return children == null || children[cell] == null ? 
+                    0L : children[cell].keys;
+        }
+        
+        private Node[] withoutChild(final int cell) {
+            Node[] c = children;
+            if (c != null) {
+                c = c.clone();
+                c[cell] = null;
+            }
+            return c;
+        }
+        
+        private Node withChild(final int cell, Node child) {
+            Node[] c = children.clone();
+            c[cell] = child;
+            return new Node(p1, p2, drawn, 
+                    keys ^ c[cell].keys ^ children[cell].keys, c);
+        }
+        
+        /**
+         * @return if {@code flag} owns a whole window through {@code cell}
+         */
+        private boolean isWonBy(GridRules rules, final int cell, Flag flag) {
+            return rules.isWonImpl(flag == Flag.PLAYER_ONE ? p1 : p2, cell);
+        }
+        
+        /**
+         * @return if no window can be filled by either player anymore
+         */
+        private boolean isDrawn(GridRules rules) {
+            return rules.isDeadImpl(p1, p2, drawn);
+        }
+        
+    }
+    
+}
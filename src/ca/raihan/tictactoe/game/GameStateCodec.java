@@ -0,0 +1,414 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Binary form of a {@link GameState}, for snapshots, archives and sending a 
+ * game over the network. The history of a state is not kept.
+ * <p>
+ * A state starts with a header of {@link #HEADER_SIZE} bytes: the 
+ * {@link #VERSION}, the dimension and win length of the rules (a nibble 
+ * each), the depth, a byte of flags (bit {@code 0} is set while player two 
+ * is to move, bits {@code 1} and {@code 2} hold the code of the top level 
+ * grid) and the active index ({@code 0xFF} for 
+ * {@link HeadlessGameManager#FREE}).
+ * <p>
+ * Every grid then follows top down, each child as a 2 bit code: 
+ * {@link #EMPTY}, {@link #PLAYER_ONE}, {@link #PLAYER_TWO} or 
+ * {@link #DRAWN}. The code of a child that is not a cell and is empty or 
+ * drawn is directly followed by the codes of its own children; won grids 
+ * have none. Codes are packed four to a byte, highest bits first, so the 
+ * 81 cells of a game of depth 2 take 21 bytes, 28 with the codes of its 
+ * grids and the header.
+ *
+ * @author Pranjal Raihan
+ */
+public final class GameStateCodec extends __UninstantiableImpl {
+    
+    public static final int VERSION = 1;
+    
+    public static final int HEADER_SIZE = 5;
+    
+    public static final int EMPTY = 0;
+    
+    public static final int PLAYER_ONE = 1;
+    
+    public static final int PLAYER_TWO = 2;
+    
+    public static final int DRAWN = 3;
+    
+    private static final int SIDE_TO_MOVE_BIT = 1;
+    
+    private static final int ROOT_SHIFT = 1;
+    
+    private static final int NO_ACTIVE = 0xFF;
+    
+    
+    
+    
+    private GameStateCodec() {
+    }
+    
+    
+    
+    
+    /**
+     * @param state the state to encode
+     * 
+     * @return the number of bytes {@code state} is encoded in
+     */
+    public static int encodedSize(GameState state) {
+        Contract.nonNull(state);
+        return HEADER_SIZE + (2 * countCodesImpl(state) + 7) / 8;
+    }
+    
+    /**
+     * Writes a state at the position of {@code buffer}, moving the position 
+     * past it. Nothing is written if it does not fit.
+     * 
+     * @param state the state to encode
+     * @param buffer where to write
+     * 
+     * @throws BufferOverflowException if {@code buffer} has less than 
+     * {@link #encodedSize(GameState)} bytes remaining
+     */
+    public static void encode(GameState state, ByteBuffer buffer) {
+        Contract.nonNull(buffer);
+        if (buffer.remaining() < encodedSize(state)) {
+            throw new BufferOverflowException();
+        }
+        final GridRules rules = state.getRules();
+        final int depth = state.getDepth();
+        final int rootCode = state.isOver() ? 
+                codeOfImpl(state.getWinner(), true) : EMPTY;
+        int flags = rootCode << ROOT_SHIFT;
+        if (state.getCurrentFlag() == Flag.PLAYER_TWO) {
+            flags |= SIDE_TO_MOVE_BIT;
+        }
+        final int active = state.getActiveIndex();
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (rules.getDimension() << 4 | rules.getWinLength()));
+        buffer.put((byte) depth);
+        buffer.put((byte) flags);
+        buffer.put((byte) (active == HeadlessGameManager.FREE ? 
+                NO_ACTIVE : active));
+        if (hasBodyImpl(state)) {
+            BitWriter out = new BitWriter(buffer);
+            encodeImpl(state.getRootImpl(), depth, rules.getCellCount(), out);
+            out.flush();
+        }
+    }
+    
+    /**
+     * @param state the state to encode
+     * 
+     * @return the bytes of {@code state}
+     */
+    public static byte[] encode(GameState state) {
+        byte[] rv = new byte[encodedSize(state)];
+        encode(state, ByteBuffer.wrap(rv));
+        return rv;
+    }
+    
+    /**
+     * Reads a state at the position of {@code buffer}, moving the position 
+     * past it.
+     * 
+     * @param buffer where to read
+     * 
+     * @return the state
+     * 
+     * @throws java.nio.BufferUnderflowException if {@code buffer} ends 
+     * before the state does
+     * @throws IllegalArgumentException if the version is not supported or 
+     * the bytes are not a state
+     */
+    public static GameState decode(ByteBuffer buffer) {
+        Contract.nonNull(buffer);
+        final int version = buffer.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException(
+                    "Unsupported version: " + version);
+        }
+        final int size = buffer.get() & 0xFF;
+        final int depth = buffer.get() & 0xFF;
+        final int flags = buffer.get() & 0xFF;
+        final int activeByte = buffer.get() & 0xFF;
+        final int dimension = size >>> 4;
+        final int winLength = size & 0xF;
+        if (dimension < GridRules.MIN_DIMENSION 
+                || dimension > GridRules.MAX_DIMENSION 
+                || winLength < 1 
+                || winLength > dimension 
+                || depth > CellPath.MAX_DEPTH) {
+            throw new IllegalArgumentException("Corrupt header");
+        }
+        final GridRules rules = dimension == 3 && winLength == 3 ? 
+                GridRules.CLASSIC : new GridRules(dimension, winLength);
+        final int cells = rules.getCellCount();
+        final int rootCode = (flags >>> ROOT_SHIFT) & 3;
+        final int active = 
+                activeByte == NO_ACTIVE ? HeadlessGameManager.FREE : activeByte;
+        if (active != HeadlessGameManager.FREE 
+                && (active >= cells || depth < 2 || rootCode != EMPTY)) {
+            throw new IllegalArgumentException(
+                    "Active index out of bounds: " + active);
+        }
+        if (depth == 0 && rootCode == DRAWN) {
+            throw new IllegalArgumentException("Cell cannot be drawn");
+        }
+        final Flag winner = flagOfImpl(rootCode);
+        final Flag current = (flags & SIDE_TO_MOVE_BIT) != 0 ? 
+                Flag.PLAYER_TWO : Flag.PLAYER_ONE;
+        GameState.Node root;
+        if (depth == 0) {
+            root = null;
+        } else if (winner != Flag.NONE) {
+            root = GameState.emptyNodesImpl(rules, depth)[depth];
+        } else {
+            BitReader in = new BitReader(buffer);
+            root = decodeImpl(rules, CellPath.ROOT, depth, in);
+            checkRootImpl(rules, root, rootCode, active);
+        }
+        return GameState.restoreImpl(rules, depth, root, winner, 
+                rootCode != EMPTY, current, active);
+    }
+    
+    /**
+     * @param bytes the bytes of a state
+     * 
+     * @return the state
+     * 
+     * @see #decode(ByteBuffer)
+     */
+    public static GameState decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(Contract.nonNull(bytes)));
+    }
+    
+    
+    
+    
+    /**
+     * A won game has no body, what was played in it is gone.
+     */
+    static boolean hasBodyImpl(GameState state) {
+        return state.getDepth() > 0 && state.getWinner() == Flag.NONE;
+    }
+    
+    static int countCodesImpl(GameState state) {
+        if (!hasBodyImpl(state)) {
+            return 0;
+        }
+        return countCodesImpl(state.getRootImpl(), state.getDepth(), 
+                state.getRules().getCellCount());
+    }
+    
+    private static int countCodesImpl(GameState.Node node, final int height, 
+            final int cells) {
+        int count = cells;
+        if (height > 1) {
+            for (int i = 0; i < cells; ++i) {
+                if (((node.p1 | node.p2) & (1 << i)) == 0) {
+                    count += countCodesImpl(
+                            node.children[i], height - 1, cells);
+                }
+            }
+        }
+        return count;
+    }
+    
+    private static void encodeImpl(GameState.Node node, final int height, 
+            final int cells, BitWriter out) {
+        for (int i = 0; i < cells; ++i) {
+            final int bit = 1 << i;
+            if ((node.p1 & bit) != 0) {
+                out.write(PLAYER_ONE);
+            } else if ((node.p2 & bit) != 0) {
+                out.write(PLAYER_TWO);
+            } else {
+                out.write((node.drawn & bit) != 0 ? DRAWN : EMPTY);
+                if (height > 1) {
+                    encodeImpl(node.children[i], height - 1, cells, out);
+                }
+            }
+        }
+    }
+    
+    private static GameState.Node decodeImpl(GridRules rules, 
+            final long path, final int height, BitReader in) {
+        final int cells = rules.getCellCount();
+        int p1 = 0;
+        int p2 = 0;
+        int drawn = 0;
+        GameState.Node[] children = 
+                height > 1 ? new GameState.Node[cells] : null;
+        for (int i = 0; i < cells; ++i) {
+            final int code = in.read();
+            switch (code) {
+                case PLAYER_ONE:
+                    p1 |= 1 << i;
+                    continue;
+                case PLAYER_TWO:
+                    p2 |= 1 << i;
+                    continue;
+                case DRAWN:
+                    if (height == 1) {
+                        throw new IllegalArgumentException(
+                                "Cell cannot be drawn: " 
+                                + CellPath.toString(CellPath.child(path, i)));
+                    }
+                    drawn |= 1 << i;
+                    break;
+            }
+            if (children != null) {
+                final long child = CellPath.child(path, i);
+                children[i] = decodeImpl(rules, child, height - 1, in);
+                checkGridImpl(rules, children[i], code == DRAWN, child);
+            }
+        }
+        return GameState.Node.of(path, p1, p2, drawn, children);
+    }
+    
+    /**
+     * The player cannot be sent to a closed grid.
+     */
+    private static void checkRootImpl(GridRules rules, GameState.Node root, 
+            final int rootCode, final int active) {
+        final int closed = root.p1 | root.p2 | root.drawn;
+        if (active != HeadlessGameManager.FREE 
+                && (closed & (1 << active)) != 0) {
+            throw new IllegalArgumentException(
+                    "Active grid is closed: " + active);
+        }
+        checkGridImpl(rules, root, rootCode == DRAWN, CellPath.ROOT);
+    }
+    
+    /**
+     * A grid with a body is drawn if and only if none of its windows is 
+     * live. No line of it is won, or it would have no body.
+     */
+    private static void checkGridImpl(GridRules rules, GameState.Node node, 
+            final boolean drawn, final long path) {
+        if (rules.winnerImpl(node.p1, node.p2) != Flag.NONE 
+                || rules.isDeadImpl(node.p1, node.p2, node.drawn) 
+                        != drawn) {
+            throw new IllegalArgumentException(
+                    "Grid does not match its code: " 
+                    + CellPath.toString(path));
+        }
+    }
+    
+    private static int codeOfImpl(Flag flag, final boolean closed) {
+        switch (flag) {
+            case PLAYER_ONE:
+                return PLAYER_ONE;
+            case PLAYER_TWO:
+                return PLAYER_TWO;
+            default:
+                return closed ? DRAWN : EMPTY;
+        }
+    }
+    
+    private static Flag flagOfImpl(final int code) {
+        switch (code) {
+            case PLAYER_ONE:
+                return Flag.PLAYER_ONE;
+            case PLAYER_TWO:
+                return Flag.PLAYER_TWO;
+            default:
+                return Flag.NONE;
+        }
+    }
+    
+    
+    
+    
+    private static final class BitWriter {
+        
+        private final ByteBuffer buffer;
+        
+        private int bits;
+        
+        private int count;
+        
+        
+        
+        
+        private BitWriter(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        
+        
+        
+        private void write(final int code) {
+            bits = bits << 2 | code;
+            count += 2;
+            if (count == 8) {
+                buffer.put((byte) bits);
+                bits = 0;
+                count = 0;
+            }
+        }
+        
+        private void flush() {
+            if (count > 0) {
+                buffer.put((byte) (bits << (8 - count)));
+                bits = 0;
+                count = 0;
+            }
+        }
+        
+    }
+    
+    private static final class BitReader {
+        
+        private final ByteBuffer buffer;
+        
+        private int bits;
+        
+        private int count;
+        
+        
+        
+        
+        private BitReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        
+        
+        
+        private int read() {
+            if (count == 0) {
+                bits = buffer.get() & 0xFF;
+                count = 8;
+            }
+            count -= 2;
+            return (bits >>> count) & 3;
+        }
+        
+    }
+    
+}
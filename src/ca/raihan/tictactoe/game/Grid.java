@@ -32,6 +32,17 @@ public interface Grid<T> {
     
     Grid<T> getGreatParent();
     
+    /**
+     * @return the grid that owns this one, {@code null} for the top level
+     */
+    Grid<T> getParent();
+    
+    /**
+     * @return the number of levels above this grid, {@code 0} for the top 
+     * level
+     */
+    int getDepth();
+    
     GridCollection getChildren();
     
     GridCollection getPeers();
@@ -61,6 +72,11 @@ public interface Grid<T> {
         
         public static final int GREAT_PARENT;
         
+        /**
+         * Set, along with {@link #LOCKED}, on a grid no one can win anymore.
+         */
+        public static final int DRAWN;
+        
         
         
         
@@ -70,6 +86,7 @@ public interface Grid<T> {
             LOCKED = 1 << 2;
             HAS_CHILDREN = 1 << 3;
             GREAT_PARENT = 1 << 4;
+            DRAWN = 1 << 5;
         }
         
         
@@ -16,13 +16,12 @@
 
 package ca.raihan.tictactoe.game;
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 import java.util.function.Consumer;
 
-import static ca.raihan.tictactoe.game.GridConsts.*;
-
 import ca.raihan.tictactoe.players.Player;
 
 import ca.raihan.util.Contract;
@@ -33,9 +32,24 @@ import ca.raihan.util.Contract;
  */
 public class GridCollection implements Iterable<Grid> {
     
-    private static final int ARRAY_LENGTH = DIMENSION * DIMENSION;
+    private final GridRules rules;
+    
+    private final BitboardFlagGrid flagGrid;
+    
+    /**
+     * Cells of player one, player two and of drawn grids, one bit per cell 
+     * index. A window is live while some player could still fill it: it 
+     * holds no drawn grid and does not hold both players.
+     */
+    private int playerOneCells;
+    
+    private int playerTwoCells;
     
-    private final FlagGrid flagGrid = new FlagGrid(ARRAY_LENGTH);
+    private int drawnCells;
+    
+    private int liveWindows;
+    
+    private Flag winFlag = Flag.NONE;
     
     private final Grid[][] grids;
     
@@ -45,11 +59,27 @@ public class GridCollection implements Iterable<Grid> {
     
     private int count;
     
+    /**
+     * Number of times a grid was put or cleared, iterators use it to notice 
+     * that the collection changed under them.
+     */
+    private int modCount;
+    
+    private GridCollection constView;
+    
     
     
     
     public GridCollection(Grid owner) {
-        grids = new Grid[DIMENSION][DIMENSION];
+        this(owner, GridRules.CLASSIC);
+    }
+    
+    public GridCollection(Grid owner, GridRules rules) {
+        this.rules = Contract.nonNull(rules);
+        final int dimension = rules.getDimension();
+        grids = new Grid[dimension][dimension];
+        flagGrid = new BitboardFlagGrid(dimension);
+        liveWindows = rules.getWindowCount();
         this.owner = owner;
     }
     
@@ -57,7 +87,7 @@ public class GridCollection implements Iterable<Grid> {
     
     
     public void putGrid(GridCoord coord, Grid grid) {
-        GridUtils.checkCoord(coord);
+        GridUtils.checkCoord(coord, rules.getDimension());
         synchronized (mutex) {
             Grid g = grids[coord.getX()][coord.getY()];
             if (g == null) {
@@ -70,6 +100,7 @@ public class GridCollection implements Iterable<Grid> {
                 }
             }
             grids[coord.getX()][coord.getY()] = grid;
+            modCount++;
         }
     }
     
@@ -80,8 +111,10 @@ public class GridCollection implements Iterable<Grid> {
     }
     
     public void setFlag(GridCoord coord, Flag flag) {
+        GridUtils.checkCoord(coord, rules.getDimension());
+        Contract.nonNull(flag);
         synchronized (mutex) {
-            flagGrid.setFlag(coord, flag);
+            updateImpl(coord.getX(), coord.getY(), flag);
         }
     }
     
@@ -90,16 +123,49 @@ public class GridCollection implements Iterable<Grid> {
     
     @SuppressWarnings("unchecked")
     public Grid getGrid(GridCoord coord) {
-        GridUtils.checkCoord(coord);
+        GridUtils.checkCoord(coord, rules.getDimension());
         synchronized (mutex) {
             return grids[coord.getX()][coord.getY()];
         }
     }
     
+    /**
+     * Same as {@link #getGrid(GridCoord)} without the coordinate.
+     * 
+     * @param x the row of the grid
+     * @param y the column of the grid
+     * 
+     * @return the grid, or {@code null}
+     */
+    public Grid getGrid(final int x, final int y) {
+        if (!rules.contains(x, y)) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
+        }
+        synchronized (mutex) {
+            return grids[x][y];
+        }
+    }
+    
     public Grid getOwner() {
         return owner;
     }
     
+    public GridRules getRules() {
+        return rules;
+    }
+    
+    /**
+     * @return a read only view of this collection, created once
+     */
+    public GridCollection asConst() {
+        GridCollection rv = constView;
+        if (rv == null) {
+            constView = rv = new ConstGridCollection(this);
+        }
+        return rv;
+    }
+    
     public GridCoord getCoord(Grid grid) {
         Contract.nonNull(grid);
         for (int i = 0; i < grids.length; ++i) {
@@ -112,68 +178,168 @@ public class GridCollection implements Iterable<Grid> {
         return null;
     }
     
-    public UpdateInfo update() {
-        updateFlagGrid();
-        return new UpdateInfo(flagGrid, checkWinFlag());
+    /**
+     * Records that the grid at {@code (x, y)} now belongs to {@code flag} and 
+     * returns the flag that won this collection, if any. Only the windows 
+     * through {@code (x, y)} are looked at and nothing is allocated.
+     * 
+     * @param x the row of the grid that changed
+     * @param y the column of the grid that changed
+     * @param flag the new flag of that grid
+     * 
+     * @return the winning flag, or {@code NONE}
+     */
+    public Flag update(final int x, final int y, Flag flag) {
+        Contract.nonNull(flag);
+        if (!rules.contains(x, y)) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
+        }
+        synchronized (mutex) {
+            return updateImpl(x, y, flag);
+        }
     }
     
-    private void updateFlagGrid() {
-        final int size = grids.length;
-        for (int i = 0; i < size; ++i)
-            for (int j = 0; j < size; ++j) {
-                GridCoord coord = new GridCoord(i, j);
-                Grid g = getGrid(coord);
-                Player p = g.getPlayer();
-                if (p != null && flagGrid.getFlag(coord) == Flag.NONE) {
-                    flagGrid.setFlag(coord, 
-                            g.getGameManager().getFlagOf(p));
+    /**
+     * Picks up the players of every child grid that were not recorded yet.
+     * 
+     * @return the flags and winner of this collection
+     */
+    public UpdateInfo update() {
+        synchronized (mutex) {
+            for (int i = 0; i < grids.length; ++i) {
+                for (int j = 0; j < grids.length; ++j) {
+                    Grid g = grids[i][j];
+                    if (g == null || flagGrid.getFlag(i, j) != Flag.NONE)
+                        continue;
+                    Player p = g.getPlayer();
+                    if (p != null) {
+                        updateImpl(i, j, g.getGameManager().getFlagOf(p));
+                    }
                 }
             }
+            return new UpdateInfo(flagGrid, winFlag);
+        }
     }
     
-    private Flag checkWinFlag() {
-        for (int i = 0; i < GridConsts.DIMENSION; ++i) {
-            // check columns
-            switch (sum(flagGrid.getColumn(i))) {
-                case DIMENSION:
-                    return Flag.PLAYER_ONE;
-                case -DIMENSION:
-                    return Flag.PLAYER_TWO;
-            }
-            // check rows
-            switch (sum(flagGrid.getRow(i))) {
-                case DIMENSION:
-                    return Flag.PLAYER_ONE;
-                case -DIMENSION:
-                    return Flag.PLAYER_TWO;
+    /**
+     * @return the flag that won this collection, or {@code NONE}
+     */
+    public Flag getWinFlag() {
+        synchronized (mutex) {
+            return winFlag;
+        }
+    }
+    
+    /**
+     * Records that the grid at {@code (x, y)} was drawn. A drawn grid 
+     * belongs to no one and blocks every window through it.
+     * 
+     * @param x the row of the drawn grid
+     * @param y the column of the drawn grid
+     * 
+     * @return if this collection is now drawn as well
+     * 
+     * @see #isDrawn()
+     */
+    public boolean markDrawn(final int x, final int y) {
+        if (!rules.contains(x, y)) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
+        }
+        synchronized (mutex) {
+            if (flagGrid.getFlag(x, y) != Flag.NONE) {
+                updateImpl(x, y, Flag.NONE);
             }
+            final int cell = rules.coordToIndex(x, y);
+            final int before = countLiveImpl(cell);
+            drawnCells |= 1 << cell;
+            liveWindows -= before - countLiveImpl(cell);
+            return isDrawnImpl();
         }
-        
-        // check diagonal top left to bottom right
-        switch (sum(flagGrid.getDiagonalLeftToRight())) {
-            case DIMENSION:
-                return Flag.PLAYER_ONE;
-            case -DIMENSION:
-                return Flag.PLAYER_TWO;
+    }
+    
+    /**
+     * Undoes {@link #markDrawn(int, int)}.
+     * 
+     * @param x the row of the grid that is no longer drawn
+     * @param y the column of the grid that is no longer drawn
+     */
+    public void unmarkDrawn(final int x, final int y) {
+        if (!rules.contains(x, y)) {
+            throw new IllegalArgumentException(
+                    "Coordinate out of bounds: " + new GridCoord(x, y));
         }
-        
-        // check diagonal top right to bottom left
-        switch (sum(flagGrid.getDiagonalRightToLeft())) {
-            case DIMENSION:
-                return Flag.PLAYER_ONE;
-            case -DIMENSION:
-                return Flag.PLAYER_TWO;
+        synchronized (mutex) {
+            final int cell = rules.coordToIndex(x, y);
+            final int before = countLiveImpl(cell);
+            drawnCells &= ~(1 << cell);
+            liveWindows += countLiveImpl(cell) - before;
         }
-        
-        return Flag.NONE;
     }
     
-    private static int sum(Flag[] flags) {
-        int rv = 0;
-        for (Flag f : flags) {
-            rv += f.intValue();
+    /**
+     * A collection is drawn as soon as no window is live anymore, which can 
+     * be long before it is full.
+     * 
+     * @return if no one can win this collection anymore
+     */
+    public boolean isDrawn() {
+        synchronized (mutex) {
+            return isDrawnImpl();
+        }
+    }
+    
+    /**
+     * @return the number of windows that can still be won by someone
+     */
+    public int getLiveWindowCount() {
+        synchronized (mutex) {
+            return liveWindows;
         }
-        return rv;
+    }
+    
+    private boolean isDrawnImpl() {
+        return winFlag == Flag.NONE && liveWindows == 0;
+    }
+    
+    private Flag updateImpl(final int x, final int y, Flag flag) {
+        final Flag old = flagGrid.getFlag(x, y);
+        if (old == flag)
+            return winFlag;
+        flagGrid.setFlag(x, y, flag);
+        final int cell = rules.coordToIndex(x, y);
+        final int bit = 1 << cell;
+        final int before = countLiveImpl(cell);
+        playerOneCells &= ~bit;
+        playerTwoCells &= ~bit;
+        drawnCells &= ~bit;
+        if (flag == Flag.PLAYER_ONE)
+            playerOneCells |= bit;
+        else if (flag == Flag.PLAYER_TWO)
+            playerTwoCells |= bit;
+        liveWindows -= before - countLiveImpl(cell);
+        if (flag != Flag.NONE && rules.isWonImpl(flag == Flag.PLAYER_ONE ? 
+                playerOneCells : playerTwoCells, cell)) {
+            winFlag = flag;
+        } else if (old != Flag.NONE) {
+            winFlag = rules.winnerImpl(playerOneCells, playerTwoCells);
+        }
+        return winFlag;
+    }
+    
+    /**
+     * @return the number of live windows through {@code cell}
+     */
+    private int countLiveImpl(final int cell) {
+        int count = 0;
+        for (int w : rules.windowsOf(cell)) {
+            final int mask = rules.getWindowMask(w);
+            if ((drawnCells & mask) == 0 && ((playerOneCells & mask) == 0 
+                    || (playerTwoCells & mask) == 0))
+                count++;
+        }
+        return count;
     }
     
     
@@ -182,25 +348,56 @@ public class GridCollection implements Iterable<Grid> {
     public void forEach(Consumer<? super Grid> action) {
         Contract.nonNull(action);
         synchronized (mutex) {
-            for (Grid grid : this) {
-                action.accept(grid);
+            for (Grid[] arr : grids) {
+                for (Grid grid : arr) {
+                    action.accept(grid);
+                }
             }
         }
-    }    
+    }
     
-    @SuppressWarnings("unchecked")
+    /**
+     * Calls {@code action} for every slot, row by row and empty ones 
+     * included, while holding the lock of this collection. Nothing is 
+     * allocated.
+     * 
+     * @param action what to do with each slot
+     */
+    public void forEachIndexed(IndexedGridConsumer action) {
+        Contract.nonNull(action);
+        synchronized (mutex) {
+            for (int i = 0; i < grids.length; ++i) {
+                for (int j = 0; j < grids.length; ++j) {
+                    action.accept(i, j, grids[i][j]);
+                }
+            }
+        }
+    }
+    
+    /**
+     * The iterator reads the collection as it goes instead of copying it. 
+     * It is fail-fast: if a grid is put or the collection is cleared after 
+     * it was created, the next call to {@code next()} throws 
+     * {@code ConcurrentModificationException}.
+     * 
+     * @return an iterator over every slot, row by row
+     */
     public Iterator<Grid> iterator() {
-        return new Itr(grids);
+        return new Itr();
     }
     
     
     
     
     public void clear() {
-        for (Grid[] arr : grids) {
-            for (int i = 0; i < arr.length; ++i) {
-                arr[i] = null;
+        synchronized (mutex) {
+            for (Grid[] arr : grids) {
+                for (int i = 0; i < arr.length; ++i) {
+                    arr[i] = null;
+                }
             }
+            count = 0;
+            modCount++;
         }
     }
     
@@ -217,15 +414,21 @@ public class GridCollection implements Iterable<Grid> {
         
         
         protected UpdateInfo(FlagGrid flagGrid, Flag flag) {
-            this.flagGrid = new FlagGrid.ConstGrid(flagGrid);
+            this.flagGrid = flagGrid;
             this.flag = flag;
         }
         
         
         
         
+        /**
+         * The grid is only copied when asked for, so this reflects the 
+         * collection at the time of this call rather than of the update.
+         * 
+         * @return an immutable copy of the flags of the collection
+         */
         public FlagGrid getFlagGrid() {
-            return flagGrid;
+            return new FlagGrid.ConstGrid(flagGrid);
         }
         
         public Flag getFlag() {
@@ -237,54 +440,45 @@ public class GridCollection implements Iterable<Grid> {
     
     
     
-    private static class Itr<T extends Grid> implements Iterator<T> {
+    /**
+     * Receives a slot of a {@code GridCollection} with its coordinate.
+     */
+    public static interface IndexedGridConsumer {
         
-        private final Grid[][] grids;
-        
-        private final int len;
-        
-        private int row;
-        private int col = -1;
+        void accept(int x, int y, Grid grid);
         
+    }
+    
+    
+    
+    
+    private class Itr implements Iterator<Grid> {
         
+        private final int len = grids.length;
         
+        private final int expectedModCount = modCount;
         
-        // Assumed square array
-        private Itr(T[][] grids) {
-            this.len = grids.length;
-            this.grids = new Grid[len][len];
-            for (int i = 0; i < len; ++i) {
-                for (int j = 0; j < len; ++j) {
-                    this.grids[i][j] = grids[i][j];
-                }
-            }
-        }
+        private int cell;
         
         
         
         
         public boolean hasNext() {
-            return (row == len - 1 ? 
-                    (col < len - 1) : 
-                    row < len);
+            return cell < len * len;
         }
         
-        @SuppressWarnings("unchecked")
-        public T next() {
+        public Grid next() {
             if (!hasNext())
                 throw new NoSuchElementException(
                         "iterator has no more elements");
-            if (col == len - 1) {
-                col = -1;
-                row++;
-            }
-            return (T) grids[row][++col];
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            final int c = cell++;
+            return grids[c / len][c % len];
         }
         
         public void remove() {
-            throw new UnsupportedOperationException(
-                    "GridCollection iterator saves a copy "
-                            + "of the state of the grid");
+            throw new UnsupportedOperationException("Removal not supported");
         }
         
     }
@@ -297,8 +491,16 @@ public class GridCollection implements Iterable<Grid> {
         
         
         public ConstGridCollection(GridCollection gridCollection) {
-            super(null);
-            this.gridCollection = Contract.nonNull(gridCollection);
+            super(null, Contract.nonNull(gridCollection).getRules());
+            this.gridCollection = gridCollection;
+        }
+        
+        
+        
+        
+        @Override
+        public GridCollection asConst() {
+            return this;
         }
         
         
@@ -328,6 +530,39 @@ public class GridCollection implements Iterable<Grid> {
                     "ConstGridCollection is directly immutable");
         }
         
+        @Override
+        public Flag update(int x, int y, Flag flag) {
+            throw new UnsupportedOperationException(
+                    "ConstGridCollection is directly immutable");
+        }
+        
+        @Override
+        public boolean markDrawn(int x, int y) {
+            throw new UnsupportedOperationException(
+                    "ConstGridCollection is directly immutable");
+        }
+        
+        @Override
+        public void unmarkDrawn(int x, int y) {
+            throw new UnsupportedOperationException(
+                    "ConstGridCollection is directly immutable");
+        }
+        
+        @Override
+        public Flag getWinFlag() {
+            return gridCollection.getWinFlag();
+        }
+        
+        @Override
+        public boolean isDrawn() {
+            return gridCollection.isDrawn();
+        }
+        
+        @Override
+        public int getLiveWindowCount() {
+            return gridCollection.getLiveWindowCount();
+        }
+        
         @Override
         public GridCoord getCoord(Grid grid) {
             return gridCollection.getCoord(grid);
@@ -338,6 +573,11 @@ public class GridCollection implements Iterable<Grid> {
             return gridCollection.getGrid(coord);
         }
         
+        @Override
+        public Grid getGrid(int x, int y) {
+            return gridCollection.getGrid(x, y);
+        }
+        
         @Override
         public Grid getOwner() {
             return gridCollection.getOwner();
@@ -348,6 +588,16 @@ public class GridCollection implements Iterable<Grid> {
             return gridCollection.count();
         }
         
+        @Override
+        public void forEach(Consumer<? super Grid> action) {
+            gridCollection.forEach(action);
+        }
+        
+        @Override
+        public void forEachIndexed(IndexedGridConsumer action) {
+            gridCollection.forEachIndexed(action);
+        }
+        
         @Override
         public Iterator<Grid> iterator() {
             return gridCollection.iterator();
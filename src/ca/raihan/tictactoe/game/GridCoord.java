@@ -47,6 +47,19 @@ public final class GridCoord {
     
     
     
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GridCoord))
+            return false;
+        GridCoord other = (GridCoord) obj;
+        return x == other.x && y == other.y;
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
+    
     @Override
     public String toString() {
         return "[" + (x + 1) + ", " + (y + 1) + "]";
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Size of a grid and the number of flags in a row that win it. Shared by 
+ * every grid of a game.
+ * <p>
+ * A <i>window</i> is a run of {@code winLength} cells along a row, a column 
+ * or a diagonal. A grid is won by the first flag to fill a window; the 
+ * windows through every cell are computed once here so that checking a move 
+ * only looks at those.
+ * 
+ * @author Pranjal Raihan
+ */
+public final class GridRules {
+    
+    public static final int MIN_DIMENSION = 2;
+    
+    /**
+     * Largest dimension a {@link CellPath} level can hold.
+     */
+    public static final int MAX_DIMENSION = 5;
+    
+    private static final int[][] DIRECTIONS = {
+        {0, 1}, {1, 0}, {1, 1}, {1, -1}
+    };
+    
+    /**
+     * The classic 3x3, three in a row.
+     */
+    public static final GridRules CLASSIC = 
+            new GridRules(GridConsts.DIMENSION, GridConsts.DIMENSION);
+    
+    
+    
+    
+    private final int dimension;
+    
+    private final int winLength;
+    
+    private final int[] windowMasks;
+    
+    private final int[][] windowsOfCell;
+    
+    /**
+     * If these are the rules of {@link ClassicTable}.
+     */
+    private final boolean classic;
+    
+    
+    
+    
+    public GridRules(final int dimension, final int winLength) {
+        Contract.require(
+                dimension >= MIN_DIMENSION && dimension <= MAX_DIMENSION, 
+                "dimension out of bounds");
+        Contract.require(winLength >= 1 && winLength <= dimension, 
+                "winLength out of bounds");
+        this.dimension = dimension;
+        this.winLength = winLength;
+        this.classic = dimension == 3 && winLength == 3;
+        
+        final int cells = dimension * dimension;
+        List<Integer> masks = new ArrayList<>();
+        for (int[] dir : DIRECTIONS) {
+            for (int x = 0; x < dimension; ++x) {
+                for (int y = 0; y < dimension; ++y) {
+                    final int endX = x + (winLength - 1) * dir[0];
+                    final int endY = y + (winLength - 1) * dir[1];
+                    if (!contains(endX, endY))
+                        continue;
+                    int mask = 0;
+                    for (int i = 0; i < winLength; ++i) {
+                        mask |= 1 << coordToIndex(
+                                x + i * dir[0], y + i * dir[1]);
+                    }
+                    // k == 1 finds the same cell in every direction
+                    if (!masks.contains(mask))
+                        masks.add(mask);
+                }
+            }
+        }
+        windowMasks = new int[masks.size()];
+        for (int i = 0; i < windowMasks.length; ++i) {
+            windowMasks[i] = masks.get(i);
+        }
+        
+        windowsOfCell = new int[cells][];
+        for (int c = 0; c < cells; ++c) {
+            int count = 0;
+            for (int mask : windowMasks) {
+                if ((mask & (1 << c)) != 0)
+                    count++;
+            }
+            windowsOfCell[c] = new int[count];
+            count = 0;
+            for (int w = 0; w < windowMasks.length; ++w) {
+                if ((windowMasks[w] & (1 << c)) != 0)
+                    windowsOfCell[c][count++] = w;
+            }
+        }
+    }
+    
+    
+    
+    
+    public int getDimension() {
+        return dimension;
+    }
+    
+    public int getWinLength() {
+        return winLength;
+    }
+    
+    public int getCellCount() {
+        return dimension * dimension;
+    }
+    
+    public int getWindowCount() {
+        return windowMasks.length;
+    }
+    
+    /**
+     * @param window the index of a window
+     * 
+     * @return the cells of the window, one bit per cell index
+     */
+    public int getWindowMask(final int window) {
+        return windowMasks[window];
+    }
+    
+    /**
+     * The returned array is shared and must not be modified.
+     * 
+     * @param cell the index of a cell
+     * 
+     * @return the indices of every window through {@code cell}
+     */
+    int[] windowsOf(final int cell) {
+        return windowsOfCell[cell];
+    }
+    
+    /**
+     * Looked up in {@link ClassicTable} for the classic rules.
+     * 
+     * @param mask the cells of a player, who had not filled a window before 
+     * {@code cell}
+     * @param cell the index of the cell last added to {@code mask}
+     * 
+     * @return if {@code mask} fills a window through {@code cell}
+     */
+    boolean isWonImpl(final int mask, final int cell) {
+        if (classic) {
+            return ClassicTable.hasLine(mask);
+        }
+        for (int w : windowsOfCell[cell]) {
+            final int window = windowMasks[w];
+            if ((mask & window) == window)
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return the player that filled a window, {@code NONE} if neither did
+     */
+    Flag winnerImpl(final int p1, final int p2) {
+        if (classic) {
+            return ClassicTable.getWinner(p1, p2);
+        }
+        for (int window : windowMasks) {
+            if ((p1 & window) == window)
+                return Flag.PLAYER_ONE;
+            if ((p2 & window) == window)
+                return Flag.PLAYER_TWO;
+        }
+        return Flag.NONE;
+    }
+    
+    /**
+     * @return if neither player can fill a window anymore
+     * 
+     * @see ClassicTable#isDead(int, int, int)
+     */
+    boolean isDeadImpl(final int p1, final int p2, final int drawn) {
+        if (classic) {
+            return ClassicTable.isDead(p1, p2, drawn);
+        }
+        for (int window : windowMasks) {
+            if ((drawn & window) == 0 
+                    && ((p1 & window) == 0 || (p2 & window) == 0))
+                return false;
+        }
+        return true;
+    }
+    
+    public boolean contains(final int x, final int y) {
+        return x >= 0 && x < dimension && y >= 0 && y < dimension;
+    }
+    
+    public int coordToIndex(final int x, final int y) {
+        return dimension * x + y;
+    }
+    
+    
+    
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GridRules))
+            return false;
+        GridRules other = (GridRules) obj;
+        return dimension == other.dimension && winLength == other.winLength;
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * dimension + winLength;
+    }
+    
+    @Override
+    public String toString() {
+        return dimension + "x" + dimension + ", " + winLength + " in a row";
+    }
+    
+}
@@ -34,10 +34,14 @@ final class GridUtils extends __UninstantiableImpl {
     
     
     static void checkCoord(GridCoord coord) {
+        checkCoord(coord, DIMENSION);
+    }
+    
+    static void checkCoord(GridCoord coord, final int dimension) {
         Contract.nonNull(coord);
         final int x = coord.getX();
         final int y = coord.getY();
-        if (x < 0 || x >= DIMENSION || y < 0 || y >= DIMENSION) {
+        if (x < 0 || x >= dimension || y < 0 || y >= dimension) {
             throw new IllegalArgumentException(
                     "Coordinate out of bounds: " + coord);
         }
@@ -51,7 +55,19 @@ final class GridUtils extends __UninstantiableImpl {
      * @return the index that corresponds to the specified coordinate
      */
     static int coordToIndex(GridCoord coordinate) {
-        return (3 * coordinate.getX() + coordinate.getY());
+        return coordToIndex(coordinate, DIMENSION);
+    }
+    
+    /**
+     * Same as {@link #coordToIndex(GridCoord)} for a grid of any dimension.
+     * 
+     * @param coordinate the coordinate to convert
+     * @param dimension the dimension of the grid
+     * 
+     * @return the index that corresponds to the specified coordinate
+     */
+    static int coordToIndex(GridCoord coordinate, final int dimension) {
+        return (dimension * coordinate.getX() + coordinate.getY());
     }
     
 }
@@ -0,0 +1,920 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.raihan.cfg.Config;
+import ca.raihan.tictactoe.Keywords;
+
+import ca.raihan.event.EmptyEventContext;
+import ca.raihan.event.Event;
+import ca.raihan.event.EventContext;
+import ca.raihan.event.PrivilegedEvent;
+
+import ca.raihan.tictactoe.players.Player;
+import ca.raihan.util.Contract;
+
+/**
+ * Game manager that needs no display. It owns the rules and the state of a
+ * game; {@link AWTGameManager} is a view over one of these.
+ * <p>
+ * Every change goes through {@link #play(Grid)} or {@link Grid#accept(Player)},
+ * both of which hold the lock of this manager. Views are notified through
+ * {@link #changeEvent()} and {@link #playEvent()}, which are only raised when
+ * someone listens.
+ * <p>
+ * Moves played through {@link #play(Grid)} are journaled: each one keeps 
+ * the grids it closed, and the children of those it won, so it can be 
+ * {@link #undo() undone} and {@link #redo() redone} in place.
+ *
+ * @author Pranjal Raihan
+ */
+public final class HeadlessGameManager implements GameManager<Void> {
+    
+    /**
+     * Value of {@link #getActiveIndex()} when any open cell can be played.
+     */
+    public static final int FREE = -1;
+    
+    final Object mutex = new Object();
+    
+    private final HeadlessTurnManager turnManager;
+    
+    private final Object eventKey = new Object();
+    
+    private final PrivilegedEvent<EventContext> changeEvent;
+    
+    private final PrivilegedEvent<Grid.PlayContext> playEvent;
+    
+    private final PrivilegedEvent<EventContext> drawEvent;
+    
+    private final EventContext emptyContext = new EmptyEventContext();
+    
+    private final GridRules rules;
+    
+    private HeadlessGrid grid;
+    
+    private int depth;
+    
+    private boolean started;
+    
+    /**
+     * Index of the top level child the current player was sent to, or 
+     * {@link #FREE}.
+     */
+    private int active = FREE;
+    
+    private int settledActive = FREE;
+    
+    /**
+     * {@link Zobrist} hash of the game, kept up to date by every move.
+     */
+    private long hash;
+    
+    /**
+     * Moves that can be undone, the last one played at the end.
+     */
+    private final List<MoveImpl> journal = new ArrayList<>();
+    
+    /**
+     * Cells of the moves that were undone, the last one undone at the end.
+     */
+    private final List<HeadlessGrid> undone = new ArrayList<>();
+    
+    /**
+     * The move being played, {@code null} outside of {@link #play(Grid)}.
+     */
+    private MoveImpl recording;
+    
+    /**
+     * If no event is raised, while a position is walked in place by 
+     * {@link #makeImpl(long)} and {@link #unmakeImpl()}.
+     */
+    private boolean muted;
+    
+    private Config config;
+    
+    private final Map<String, Object> resources = new HashMap<>();
+    
+    private final Player player1;
+    
+    private final Player player2;
+    
+    
+    
+    
+    public HeadlessGameManager(
+            GameInitParams<? extends Player, ? extends Player> initParams) {
+        Contract.nonNull(initParams);
+        turnManager = new HeadlessTurnManager(this, eventKey);
+        changeEvent = new PrivilegedEvent<>(eventKey);
+        playEvent = new PrivilegedEvent<>(eventKey);
+        drawEvent = new PrivilegedEvent<>(eventKey);
+        setConfig(initParams.getConfig());
+        this.rules = new GridRules(
+                initParams.getDimension(), initParams.getWinLength());
+        this.player1 = initParams.getPlayer1();
+        this.player2 = initParams.getPlayer2();
+        resources.put(Keywords.IMAGE_PLAYER_ONE, initParams.getPlayer1Image());
+        resources.put(Keywords.IMAGE_PLAYER_TWO, initParams.getPlayer2Image());
+    }
+    
+    
+    
+    
+    /**
+     * Creates the grids of the game.
+     *
+     * @param depth the number of nested levels
+     * @param size ignored, a headless game has no size
+     */
+    public void createGrids(int depth, int size) {
+        createGridsImpl(depth, false);
+    }
+    
+    /**
+     * Same as {@link #createGrids(int, int)}, but only the top level grid 
+     * and its children are created now. The children of any other grid are 
+     * created the first time they are asked for or played in; until then 
+     * they are treated as empty, so legal moves and flags can be worked out 
+     * without creating them.
+     *
+     * @param depth the number of nested levels
+     */
+    public void createGridsLazily(int depth) {
+        createGridsImpl(depth, true);
+    }
+    
+    /**
+     * A headless game cannot be populated.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public void populate(Void container, int x, int y) {
+        throw new UnsupportedOperationException(
+                getClass().getName() + " has no view");
+    }
+    
+    /**
+     * Starts the game with the first player to move. A game is started 
+     * once; its position, hash and journal are never reset.
+     *
+     * @throws IllegalStateException if the grids are not created or the 
+     * game was already started
+     */
+    public void start() {
+        synchronized (mutex) {
+            if (grid == null) {
+                throw new IllegalStateException("Grids not created");
+            }
+            if (started) {
+                throw new IllegalStateException("Game already started");
+            }
+            started = true;
+            turnManager.start();
+            changeImpl(grid);
+        }
+    }
+    
+    /**
+     * Plays the current player on {@code grid} and passes the turn.
+     *
+     * @param grid a grid of this game
+     *
+     * @return {@code false} if {@code grid} is not a playable cell, in which
+     * case nothing changes
+     *
+     * @throws IllegalArgumentException if {@code grid} is not part of this
+     * game
+     */
+    public boolean play(Grid<?> grid) {
+        Contract.nonNull(grid);
+        if (grid.getGameManager() != this) {
+            throw new IllegalArgumentException("Grid not part of this game");
+        }
+        HeadlessGrid g = (HeadlessGrid) grid;
+        synchronized (mutex) {
+            if (!isPlayableImpl(g)) {
+                return false;
+            }
+            undone.clear();
+            playMoveImpl(g);
+            return true;
+        }
+    }
+    
+    /**
+     * Same as {@link #play(Grid)}, addressing the cell by its path.
+     * 
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return {@code false} if there is no playable cell at {@code path}
+     */
+    public boolean play(final long path) {
+        return tryPlay(path) == MoveStatus.OK;
+    }
+    
+    /**
+     * Same as {@link #play(long)}, telling why a move was not played. 
+     * Nothing is thrown, and nothing is allocated for a move that is not 
+     * played.
+     * 
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return {@link MoveStatus#OK} if the move was played
+     */
+    public MoveStatus tryPlay(final long path) {
+        synchronized (mutex) {
+            MoveStatus rv = validateImpl(path);
+            if (rv == MoveStatus.OK) {
+                undone.clear();
+                playMoveImpl(getGridImpl(path));
+            }
+            return rv;
+        }
+    }
+    
+    /**
+     * Takes back the last move played. This takes {@code O(depth)} whatever 
+     * the size of the game: only the grids the move closed are reopened, 
+     * won grids get back the children they had.
+     * 
+     * @return {@code false} if there is no move to take back
+     */
+    public boolean undo() {
+        synchronized (mutex) {
+            if (journal.isEmpty()) {
+                return false;
+            }
+            HeadlessGrid cell = undoMoveImpl();
+            undone.add(cell);
+            turnManager.nextTurnImpl(cell);
+            return true;
+        }
+    }
+    
+    /**
+     * Plays the last move taken back by {@link #undo()} again. Playing any 
+     * other move forgets the moves that were taken back.
+     * 
+     * @return {@code false} if there is no move to play again
+     */
+    public boolean redo() {
+        synchronized (mutex) {
+            if (undone.isEmpty()) {
+                return false;
+            }
+            playMoveImpl(undone.remove(undone.size() - 1));
+            return true;
+        }
+    }
+    
+    /**
+     * @return the number of moves {@link #undo()} can take back
+     */
+    public int getUndoCount() {
+        synchronized (mutex) {
+            return journal.size();
+        }
+    }
+    
+    /**
+     * @return the number of moves {@link #redo()} can play again
+     */
+    public int getRedoCount() {
+        synchronized (mutex) {
+            return undone.size();
+        }
+    }
+    
+    public Grid<Void> getGrid() {
+        return grid;
+    }
+    
+    /**
+     * @return the paths of every cell the current player can play
+     */
+    public long[] legalMoves() {
+        synchronized (mutex) {
+            HeadlessGrid from = legalRootImpl();
+            if (from == null) {
+                return new long[0];
+            }
+            long[] rv = new long[from.collectOpenCellsImpl(null, 0)];
+            from.collectOpenCellsImpl(rv, 0);
+            return rv;
+        }
+    }
+    
+    /**
+     * Same as {@link #legalMoves()} without allocating.
+     * 
+     * @param buffer where to put the paths, must be big enough for every 
+     * legal move (see {@link #legalMoveCount()})
+     * 
+     * @return the number of paths put in {@code buffer}
+     */
+    public int legalMoves(long[] buffer) {
+        Contract.nonNull(buffer);
+        synchronized (mutex) {
+            HeadlessGrid from = legalRootImpl();
+            return from == null ? 0 : from.collectOpenCellsImpl(buffer, 0);
+        }
+    }
+    
+    public int legalMoveCount() {
+        synchronized (mutex) {
+            HeadlessGrid from = legalRootImpl();
+            return from == null ? 0 : from.collectOpenCellsImpl(null, 0);
+        }
+    }
+    
+    /**
+     * @param path the {@link CellPath} of a cell
+     * 
+     * @return if the current player can play {@code path}
+     */
+    public boolean isLegal(final long path) {
+        return validate(path) == MoveStatus.OK;
+    }
+    
+    /**
+     * Same as {@link #isLegal(long)}, telling why a move cannot be played. 
+     * Nothing is thrown or allocated, whatever {@code path} is.
+     * 
+     * @param path the {@link CellPath} of a cell
+     * 
+     * @return {@link MoveStatus#OK} if the current player can play 
+     * {@code path}
+     */
+    public MoveStatus validate(final long path) {
+        synchronized (mutex) {
+            return validateImpl(path);
+        }
+    }
+    
+    /**
+     * Returns the children of the grid at {@code path} that the current 
+     * player can play in, one bit per child as given by 
+     * {@link GridRules#coordToIndex(int, int)}. For a grid whose children 
+     * are cells, these are exactly its legal moves.
+     * 
+     * @param path the {@link CellPath} of a grid
+     * 
+     * @return the mask of playable children
+     */
+    public int getLegalMask(final long path) {
+        synchronized (mutex) {
+            HeadlessGrid g = findGridImpl(path);
+            final int length = CellPath.depth(path);
+            if (g == null || length >= depth || !isOpenImpl()
+                    || g.isStateLockedImpl() || !g.isAttachedImpl()) {
+                return 0;
+            }
+            if (active != FREE && length > 0
+                    && CellPath.index(path, 0) != active) {
+                return 0;
+            }
+            // Below a grid that was not created yet every child is open
+            int mask = g.getDepth() == length ? 
+                    g.getOpenMaskImpl() : 
+                    (1 << rules.getCellCount()) - 1;
+            if (length == 0 && active != FREE) {
+                mask &= 1 << active;
+            }
+            return mask;
+        }
+    }
+    
+    /**
+     * Returns the {@link Zobrist} hash of the game: every accepted grid that 
+     * is not inside a won grid, the player to move and the grid they were 
+     * sent to. Two games with the same hash are, with overwhelming 
+     * probability, in the same position.
+     * 
+     * @return the hash of the game
+     */
+    public long getHash() {
+        synchronized (mutex) {
+            return hash;
+        }
+    }
+    
+    /**
+     * @return the index of the top level child the current player must play 
+     * in, or {@link #FREE}
+     */
+    public int getActiveIndex() {
+        synchronized (mutex) {
+            return active;
+        }
+    }
+    
+    /**
+     * Looks a grid up by its path in {@code O(depth)}. Nothing is allocated 
+     * unless the game was created lazily and the grid was not created yet.
+     * 
+     * @param path the {@link CellPath} of the grid
+     * 
+     * @return the grid, or {@code null} if it does not exist (anymore)
+     */
+    public Grid<Void> getGrid(final long path) {
+        synchronized (mutex) {
+            return getGridImpl(path);
+        }
+    }
+    
+    /**
+     * Returns the flag that owns the cell at {@code path}: the flag of the 
+     * cell itself or, if it was won as part of a bigger grid, the flag of 
+     * that grid.
+     * 
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return the owning flag, or {@code NONE}
+     */
+    public Flag getFlag(final long path) {
+        if (path == CellPath.NONE) {
+            return Flag.NONE;
+        }
+        synchronized (mutex) {
+            final int depth = CellPath.depth(path);
+            HeadlessGrid g = grid;
+            for (int i = 0; g != null; ++i) {
+                Player p = g.getPlayer();
+                if (p != null) {
+                    return getFlagOf(p);
+                }
+                if (i == depth) {
+                    break;
+                }
+                g = g.getChildImpl(CellPath.index(path, i));
+            }
+            return Flag.NONE;
+        }
+    }
+    
+    /**
+     * @param grid a grid of this game
+     * 
+     * @return the {@link CellPath} of {@code grid}
+     */
+    public long getPath(Grid<?> grid) {
+        Contract.nonNull(grid);
+        if (grid.getGameManager() != this) {
+            throw new IllegalArgumentException("Grid not part of this game");
+        }
+        return ((HeadlessGrid) grid).getPathImpl();
+    }
+    
+    public boolean isOver() {
+        synchronized (mutex) {
+            return grid != null && grid.isStateLockedImpl();
+        }
+    }
+    
+    /**
+     * @return if the game is over and no one won it
+     */
+    public boolean isDraw() {
+        synchronized (mutex) {
+            return grid != null && grid.isStateDrawnImpl();
+        }
+    }
+    
+    /**
+     * @return the flag of the player that won the game, {@code NONE} while
+     * the game is not over or if it was drawn
+     */
+    public Flag getWinner() {
+        synchronized (mutex) {
+            if (grid == null || grid.getPlayer() == null) {
+                return Flag.NONE;
+            }
+            return getFlagOf(grid.getPlayer());
+        }
+    }
+    
+    /**
+     * Raised every time the states or the player of a grid change. The
+     * sender is the grid that changed; when the cells the current player can
+     * play change, it is the smallest grid that holds all of them.
+     *
+     * @return the change event
+     */
+    public Event<EventContext> changeEvent() {
+        return changeEvent;
+    }
+    
+    /**
+     * Raised every time a grid is accepted by a player, either by a move or
+     * by winning its children. The sender is the accepted grid.
+     *
+     * @return the play event
+     */
+    public Event<Grid.PlayContext> playEvent() {
+        return playEvent;
+    }
+    
+    /**
+     * Raised every time a grid is drawn, which is as soon as no one can win 
+     * it anymore. The sender is the drawn grid; if it is the top level 
+     * grid, the game is over.
+     *
+     * @return the draw event
+     */
+    public Event<EventContext> drawEvent() {
+        return drawEvent;
+    }
+    
+    public GridRules getRules() {
+        return rules;
+    }
+    
+    /**
+     * @return the number of nested levels, as given to 
+     * {@link #createGrids(int, int)}
+     */
+    public int getDepth() {
+        synchronized (mutex) {
+            return depth;
+        }
+    }
+    
+    public HeadlessTurnManager getTurnManager() {
+        return turnManager;
+    }
+    
+    public Config getConfig() {
+        return config;
+    }
+    
+    public void setConfig(Config cfg) {
+        this.config = cfg;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public <U> U getResource(String key, Class<U> type) {
+        Contract.nonNull(key);
+        Contract.nonNull(type);
+        Object found =  resources.get(key);
+        if (found == null)
+            return null;
+        if (type.isAssignableFrom(found.getClass()))
+            return (U) found;
+        throw new IllegalArgumentException(
+                "No resource with key \""
+                        + key + "\" and type \""
+                        + type.getName() + "\"");
+    }
+    
+    @Override
+    public Player getPlayer(Flag flag) {
+        Contract.nonNull(flag);
+        if (flag == Flag.NONE) {
+            return null;
+        }
+        return flag == Flag.PLAYER_ONE ? player1 : player2;
+    }
+    
+    @Override
+    public Flag getFlagOf(Player player) {
+        if (player == player1) {
+            return Flag.PLAYER_ONE;
+        } else if (player == player2) {
+            return Flag.PLAYER_TWO;
+        }
+        throw new IllegalArgumentException("Player not found in this manager");
+    }
+    
+    
+    
+    
+    HeadlessGrid getGridImpl() {
+        return grid;
+    }
+    
+    /**
+     * Plays a legal move without raising events, and without forgetting 
+     * the moves that were taken back, to be taken back by 
+     * {@link #unmakeImpl()}. Callers hold {@link #mutex}.
+     */
+    void makeImpl(final long path) {
+        muted = true;
+        try {
+            playMoveImpl(getGridImpl(path));
+        } finally {
+            muted = false;
+        }
+    }
+    
+    /**
+     * Takes back the move of {@link #makeImpl(long)}. Callers hold 
+     * {@link #mutex}.
+     */
+    void unmakeImpl() {
+        muted = true;
+        try {
+            turnManager.nextTurnImpl(undoMoveImpl());
+        } finally {
+            muted = false;
+        }
+    }
+    
+    boolean isMutedImpl() {
+        return muted;
+    }
+    
+    boolean isOpenImpl() {
+        return started && grid != null && !grid.isStateLockedImpl();
+    }
+    
+    boolean isPlayableImpl(HeadlessGrid g) {
+        if (!isOpenImpl() 
+                || g.hasStateChildrenImpl() || g.isStateLockedImpl()) {
+            return false;
+        }
+        if (active != FREE && g.getDepth() > 0
+                && CellPath.index(g.getPathImpl(), 0) != active) {
+            return false;
+        }
+        return g.isAttachedImpl();
+    }
+    
+    private MoveStatus validateImpl(final long path) {
+        if (!started || grid == null) {
+            return MoveStatus.NOT_STARTED;
+        }
+        if (grid.isStateLockedImpl()) {
+            return MoveStatus.GAME_OVER;
+        }
+        if (path == CellPath.NONE || CellPath.depth(path) != depth) {
+            return MoveStatus.OUT_OF_BOUNDS;
+        }
+        final int cells = rules.getCellCount();
+        for (int i = 0; i < depth; ++i) {
+            if (CellPath.index(path, i) >= cells) {
+                return MoveStatus.OUT_OF_BOUNDS;
+            }
+        }
+        if (active != FREE && depth > 0 
+                && CellPath.index(path, 0) != active) {
+            return MoveStatus.WRONG_SUBGRID;
+        }
+        // Either the cell, or the grid not created yet that it is in
+        HeadlessGrid g = findGridImpl(path);
+        if (g == null || g.isStateLockedImpl() || !g.isAttachedImpl()) {
+            return MoveStatus.OCCUPIED;
+        }
+        return MoveStatus.OK;
+    }
+    
+    private HeadlessGrid legalRootImpl() {
+        if (!isOpenImpl()) {
+            return null;
+        }
+        return active == FREE ? grid : grid.getChildImpl(active);
+    }
+    
+    /**
+     * Sends the next player to the top level child with {@code index}.
+     */
+    void sendImpl(final int index) {
+        active = index;
+    }
+    
+    /**
+     * Called once a move and everything it won are done. If the player was 
+     * sent to a locked grid, they are free to play anywhere.
+     */
+    void settleImpl() {
+        if (active != FREE && (grid.isStateLockedImpl()
+                || grid.getChildImpl(active).isStateLockedImpl())) {
+            active = FREE;
+        }
+        if (active != settledActive) {
+            hash ^= Zobrist.active(settledActive) ^ Zobrist.active(active);
+            changeImpl(activeGridImpl(settledActive));
+            changeImpl(activeGridImpl(active));
+            settledActive = active;
+        }
+    }
+    
+    private HeadlessGrid activeGridImpl(final int index) {
+        HeadlessGrid rv = index == FREE ? null : grid.getChildImpl(index);
+        return rv == null ? grid : rv;
+    }
+    
+    private void createGridsImpl(final int depth, final boolean lazy) {
+        Contract.require(depth >= 0, "depth < 0");
+        Contract.require(depth <= CellPath.MAX_DEPTH, "depth too large");
+        synchronized (mutex) {
+            if (grid != null) {
+                throw new IllegalStateException("Grid already created");
+            }
+            this.depth = depth;
+            grid = new HeadlessGrid(this);
+            grid.generateChildrenImpl(depth, lazy);
+        }
+    }
+    
+    int getDepthImpl() {
+        return depth;
+    }
+    
+    /**
+     * Same as {@link #getGrid(long)}, creating the grids on the way if 
+     * needed.
+     */
+    HeadlessGrid getGridImpl(final long path) {
+        if (path == CellPath.NONE) {
+            return null;
+        }
+        final int length = CellPath.depth(path);
+        HeadlessGrid g = grid;
+        for (int i = 0; i < length && g != null; ++i) {
+            g.ensureChildrenImpl();
+            g = g.getChildImpl(CellPath.index(path, i));
+        }
+        return g;
+    }
+    
+    /**
+     * Follows {@code path} without creating any grid.
+     * 
+     * @return the grid at {@code path}, the grid that was not created yet 
+     * which {@code path} goes through, or {@code null} if there is no such 
+     * path
+     */
+    private HeadlessGrid findGridImpl(final long path) {
+        if (path == CellPath.NONE || grid == null) {
+            return null;
+        }
+        final int length = CellPath.depth(path);
+        if (length > depth) {
+            return null;
+        }
+        HeadlessGrid g = grid;
+        for (int i = 0; i < length; ++i) {
+            final int index = CellPath.index(path, i);
+            if (index >= rules.getCellCount()) {
+                return null;
+            }
+            if (g.isVirtualImpl()) {
+                continue;
+            }
+            g = g.getChildImpl(index);
+            if (g == null) {
+                return null;
+            }
+        }
+        return g;
+    }
+    
+    /**
+     * Takes back the last move of the journal, leaving the turn as it is.
+     * 
+     * @return the cell of the move
+     */
+    private HeadlessGrid undoMoveImpl() {
+        MoveImpl m = journal.remove(journal.size() - 1);
+        for (int i = m.count - 1; i >= 0; --i) {
+            m.closed[i].reopenImpl(m.children[i]);
+        }
+        final int before = active;
+        hash = m.hash;
+        active = settledActive = m.active;
+        changeImpl(activeGridImpl(before));
+        changeImpl(activeGridImpl(active));
+        return m.closed[0];
+    }
+    
+    private void playMoveImpl(HeadlessGrid g) {
+        recording = new MoveImpl(hash, active, depth + 1);
+        g.accept(turnManager.getCurrentPlayer());
+        journal.add(recording);
+        recording = null;
+        hash ^= Zobrist.SIDE_TO_MOVE;
+        turnManager.nextTurnImpl(g);
+    }
+    
+    /**
+     * Records that {@code sender} was won or drawn. A grid accepted outside 
+     * of {@link #play(Grid)} cannot be undone, nor can anything before it.
+     * 
+     * @param children the children {@code sender} had if it was won
+     */
+    void closeImpl(HeadlessGrid sender, GridCollection children) {
+        if (recording != null) {
+            recording.add(sender, children);
+        } else {
+            journal.clear();
+            undone.clear();
+        }
+    }
+    
+    void hashImpl(final long key) {
+        hash ^= key;
+    }
+    
+    void changeImpl(HeadlessGrid sender) {
+        if (!muted && changeEvent.hasListeners()) {
+            changeEvent.raise(eventKey, sender, emptyContext);
+        }
+    }
+    
+    /**
+     * The coordinate of the context is only worked out when someone listens.
+     */
+    void playImpl(HeadlessGrid sender, Flag flag) {
+        if (!muted && playEvent.hasListeners()) {
+            GridCoord coord = sender.isGreatParentImpl() ? 
+                    null : sender.getCoord();
+            playEvent.raise(eventKey, sender,
+                    new HeadlessGrid.PlayContextImpl(flag, coord));
+        }
+    }
+    
+    void drawImpl(HeadlessGrid sender) {
+        if (muted) {
+            return;
+        }
+        if (sender.isGreatParentImpl()) {
+            turnManager.endImpl(sender);
+        }
+        if (drawEvent.hasListeners()) {
+            drawEvent.raise(eventKey, sender, emptyContext);
+        }
+    }
+    
+    void endImpl(HeadlessGrid sender, Flag flag) {
+        if (muted) {
+            return;
+        }
+        turnManager.endImpl(sender);
+        playImpl(sender, flag);
+    }
+    
+    
+    
+    
+    /**
+     * What a move changed: the state of the game before it and every grid 
+     * it closed, the cell first.
+     */
+    private static final class MoveImpl {
+        
+        private final long hash;
+        
+        private final int active;
+        
+        private final HeadlessGrid[] closed;
+        
+        private final GridCollection[] children;
+        
+        private int count;
+        
+        
+        
+        
+        /**
+         * @param capacity the most grids a move can close, one per level
+         */
+        private MoveImpl(final long hash, final int active, 
+                final int capacity) {
+            this.hash = hash;
+            this.active = active;
+            this.closed = new HeadlessGrid[capacity];
+            this.children = new GridCollection[capacity];
+        }
+        
+        
+        
+        
+        private void add(HeadlessGrid grid, GridCollection c) {
+            closed[count] = grid;
+            children[count] = c;
+            count++;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,484 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.players.Player;
+
+/**
+ * Model of a grid, holds the rules of the game and nothing else. Views (like
+ * {@link AWTGrid}) observe it through the events of its
+ * {@link HeadlessGameManager}.
+ * <p>
+ * There is one of these for every cell of the game, so it only keeps what 
+ * cannot be derived: the coordinate, depth and peers of a grid all follow 
+ * from its path and its parent.
+ *
+ * @author Pranjal Raihan
+ */
+class HeadlessGrid implements Grid<Void> {
+    
+    private static final String NO_CHILDREN_MESSAGE = "Grid has no children";
+    
+    
+    
+    
+    private int states;
+    
+    /**
+     * Bit {@code i} is set while the child with index {@code i} is not 
+     * locked.
+     */
+    private int openMask;
+    
+    private GridCollection childGrids;
+    
+    private Player player;
+    
+    private final HeadlessGameManager gameManager;
+    
+    private final HeadlessGrid parent;
+    
+    private final long path;
+    
+    
+    
+    
+    HeadlessGrid(HeadlessGameManager manager) {
+        this.gameManager = Contract.nonNull(manager);
+        this.states = States.GREAT_PARENT;
+        this.parent = null;
+        this.path = CellPath.ROOT;
+    }
+    
+    private HeadlessGrid(HeadlessGrid parent, final int index) {
+        this.gameManager = parent.gameManager;
+        this.parent = parent;
+        this.path = CellPath.child(parent.path, index);
+    }
+    
+    
+    
+    
+    /**
+     * {@link States#PLAYABLE} is only ever set on a cell the current player 
+     * can play.
+     * 
+     * @return the states of this grid
+     */
+    public int getStates() {
+        return gameManager.isPlayableImpl(this) ? 
+                (states | States.PLAYABLE) : 
+                states;
+    }
+    
+    void start() {
+        states |= States.STARTED;
+    }
+    
+    public Grid<Void> getGreatParent() {
+        return gameManager.getGridImpl();
+    }
+    
+    public Grid<Void> getParent() {
+        return parent;
+    }
+    
+    public int getDepth() {
+        return CellPath.depth(path);
+    }
+    
+    public GridCollection getChildren() {
+        if (!hasStateChildrenImpl()) {
+            throw new IllegalStateException(NO_CHILDREN_MESSAGE);
+        }
+        ensureChildrenImpl();
+        return childGrids.asConst();
+    }
+    
+    public GridCollection getPeers() {
+        if (parent == null) {
+            throw new IllegalStateException("No peers - top level grid");
+        }
+        if (parent.childGrids == null) {
+            throw new IllegalStateException("No peers - parent grid was won");
+        }
+        return parent.childGrids.asConst();
+    }
+    
+    public GridCoord getCoord() {
+        if (parent == null) {
+            throw new IllegalStateException("No coordinate - top level grid");
+        }
+        final int dimension = getDimensionImpl();
+        final int index = CellPath.last(path);
+        return new GridCoord(index / dimension, index % dimension);
+    }
+    
+    long getPathImpl() {
+        return path;
+    }
+    
+    public Player getPlayer() {
+        return player;
+    }
+    
+    public HeadlessGameManager getGameManager() {
+        return gameManager;
+    }
+    
+    /**
+     * A model has no handle.
+     *
+     * @return {@code null}
+     */
+    public Void getHandle() {
+        return null;
+    }
+    
+    public void accept(Player player) {
+        Contract.nonNull(player);
+        synchronized (gameManager.mutex) {
+            acceptImpl(player);
+            gameManager.settleImpl();
+        }
+    }
+    
+    
+    
+    
+    boolean hasStateChildrenImpl() {
+        return (states & States.HAS_CHILDREN) != 0;
+    }
+    
+    /**
+     * @return if this grid has children that were not created yet
+     */
+    boolean isVirtualImpl() {
+        return childGrids == null && hasStateChildrenImpl();
+    }
+    
+    /**
+     * Creates the children of a grid of a lazily created game the first 
+     * time they are needed.
+     */
+    void ensureChildrenImpl() {
+        if (isVirtualImpl()) {
+            generateChildrenImpl(
+                    gameManager.getDepthImpl() - getDepth(), true);
+        }
+    }
+    
+    /**
+     * @return the children of this grid, {@code null} if it has none or 
+     * they were not created yet
+     */
+    GridCollection getChildrenImpl() {
+        return childGrids;
+    }
+    
+    boolean isGreatParentImpl() {
+        return parent == null;
+    }
+    
+    boolean isStateLockedImpl() {
+        return (states & States.LOCKED) != 0;
+    }
+    
+    boolean isStateDrawnImpl() {
+        return (states & States.DRAWN) != 0;
+    }
+    
+    /**
+     * @return {@code false} if any grid above this one was locked, which 
+     * detaches this grid from the game
+     */
+    boolean isAttachedImpl() {
+        for (HeadlessGrid g = parent; g != null; g = g.parent) {
+            if (g.isStateLockedImpl())
+                return false;
+        }
+        return true;
+    }
+    
+    int getOpenMaskImpl() {
+        return openMask;
+    }
+    
+    /**
+     * @param index the index of the child, as given by 
+     * {@link GridRules#coordToIndex(int, int)}
+     * 
+     * @return the child, or {@code null} if this grid has no children (yet) 
+     * or {@code index} is out of bounds
+     */
+    HeadlessGrid getChildImpl(final int index) {
+        if (childGrids == null)
+            return null;
+        final int dimension = getDimensionImpl();
+        if (index < 0 || index >= dimension * dimension)
+            return null;
+        return (HeadlessGrid) childGrids.getGrid(
+                index / dimension, index % dimension);
+    }
+    
+    int getDimensionImpl() {
+        return gameManager.getRules().getDimension();
+    }
+    
+    HeadlessGrid getParentImpl() {
+        return parent;
+    }
+    
+    /**
+     * The children of a won grid are detached rather than cleared, the 
+     * journal of the game manager keeps them so the move can be undone.
+     */
+    private void acceptImpl(Player player) {
+        setStateLockedImpl();
+        GridCollection detached = null;
+        if (hasStateChildrenImpl()) {
+            if (childGrids != null) {
+                gameManager.hashImpl(collectKeysImpl());
+                detached = childGrids;
+                childGrids = null;
+            }
+            states &= ~States.HAS_CHILDREN;
+        }
+        this.player = player;
+        gameManager.closeImpl(this, detached);
+        gameManager.changeImpl(this);
+        Flag flag = gameManager.getFlagOf(player);
+        gameManager.hashImpl(Zobrist.key(path, flag));
+        if (isGreatParentImpl()) {
+            gameManager.endImpl(this, flag);
+            return;
+        }
+        gameManager.playImpl(this, flag);
+        final int index = CellPath.last(path);
+        if (CellPath.depth(path) > 1) {
+            gameManager.sendImpl(index);
+        }
+        final int dimension = getDimensionImpl();
+        Flag f = parent.childGrids.update(
+                index / dimension, index % dimension, flag);
+        if (f != Flag.NONE) {
+            parent.acceptImpl(gameManager.getPlayer(f));
+        } else if (parent.childGrids.isDrawn()) {
+            parent.drawImpl();
+        }
+    }
+    
+    /**
+     * Locks a grid no one can win anymore. Unlike a won grid it keeps its 
+     * children, so what was played in it can still be seen.
+     */
+    private void drawImpl() {
+        setStateLockedImpl();
+        states |= States.DRAWN;
+        gameManager.closeImpl(this, null);
+        gameManager.changeImpl(this);
+        gameManager.drawImpl(this);
+        if (isGreatParentImpl()) {
+            return;
+        }
+        final int index = CellPath.last(path);
+        if (CellPath.depth(path) > 1) {
+            gameManager.sendImpl(index);
+        }
+        final int dimension = getDimensionImpl();
+        if (parent.childGrids.markDrawn(
+                index / dimension, index % dimension)) {
+            parent.drawImpl();
+        }
+    }
+    
+    /**
+     * Undoes {@link #acceptImpl(Player)} or {@link #drawImpl()}. Grids must 
+     * be reopened in the reverse order they were closed in, so the 
+     * collection of the parent is the one that recorded this grid.
+     * 
+     * @param children the children this grid had when it was won, 
+     * {@code null} if it had none or was drawn
+     */
+    void reopenImpl(GridCollection children) {
+        final boolean drawn = isStateDrawnImpl();
+        states &= ~(States.LOCKED | States.DRAWN);
+        player = null;
+        if (children != null) {
+            childGrids = children;
+            states |= States.HAS_CHILDREN;
+        }
+        if (parent != null) {
+            final int index = CellPath.last(path);
+            final int dimension = getDimensionImpl();
+            parent.openMask |= 1 << index;
+            if (drawn) {
+                parent.childGrids.unmarkDrawn(
+                        index / dimension, index % dimension);
+            } else {
+                parent.childGrids.update(
+                        index / dimension, index % dimension, Flag.NONE);
+            }
+        }
+        gameManager.changeImpl(this);
+    }
+    
+    final void setStateLockedImpl() {
+        states |= States.LOCKED;
+        if (parent != null) {
+            parent.openMask &= ~(1 << CellPath.last(path));
+        }
+    }
+    
+    /**
+     * @param depth the number of levels below this grid
+     * @param lazy only create the children of this grid, leaving theirs to 
+     * {@link #ensureChildrenImpl()}
+     */
+    void generateChildrenImpl(final int depth, final boolean lazy) {
+        if (depth == 0)
+            return;
+        final GridRules rules = gameManager.getRules();
+        final int dimension = rules.getDimension();
+        childGrids = new GridCollection(this, rules);
+        states |= States.HAS_CHILDREN;
+        openMask = (1 << rules.getCellCount()) - 1;
+        for (int i = 0; i < dimension; ++i) {
+            for (int j = 0; j < dimension; ++j) {
+                GridCoord c = new GridCoord(i, j);
+                HeadlessGrid g = 
+                        new HeadlessGrid(this, rules.coordToIndex(i, j));
+                childGrids.putGrid(c, g);
+                if (!lazy) {
+                    g.generateChildrenImpl(depth - 1, false);
+                } else if (depth > 1) {
+                    g.states |= States.HAS_CHILDREN;
+                    g.openMask = openMask;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Each grid is only walked once, when the grid above it is won, so this 
+     * costs {@code O(1)} per grid over a whole game.
+     * 
+     * @return the XOR of the {@link Zobrist} keys of every grid below this 
+     * one that was accepted
+     */
+    private long collectKeysImpl() {
+        long keys = 0L;
+        if (childGrids == null)
+            return keys;
+        for (Grid<?> g : childGrids) {
+            HeadlessGrid child = (HeadlessGrid) g;
+            if (child.player != null) {
+                keys ^= Zobrist.key(
+                        child.path, gameManager.getFlagOf(child.player));
+            } else {
+                keys ^= child.collectKeysImpl();
+            }
+        }
+        return keys;
+    }
+    
+    /**
+     * Adds the paths of every cell below this grid that is not locked.
+     * 
+     * @param buffer where to put the paths, {@code null} to only count
+     * @param count the number of paths already in {@code buffer}
+     * 
+     * @return the new number of paths
+     */
+    int collectOpenCellsImpl(long[] buffer, int count) {
+        if (isVirtualImpl()) {
+            return collectEmptyImpl(path, 
+                    gameManager.getDepthImpl() - getDepth(), 
+                    gameManager.getRules().getCellCount(), buffer, count);
+        }
+        if (childGrids == null) {
+            if (!isStateLockedImpl()) {
+                if (buffer != null)
+                    buffer[count] = path;
+                count++;
+            }
+            return count;
+        }
+        for (int mask = openMask; mask != 0; mask &= mask - 1) {
+            count = getChildImpl(Integer.numberOfTrailingZeros(mask))
+                    .collectOpenCellsImpl(buffer, count);
+        }
+        return count;
+    }
+    
+    /**
+     * Same as {@link #collectOpenCellsImpl(long[], int)} for a grid whose 
+     * children were not created yet, all of its cells are open.
+     */
+    private static int collectEmptyImpl(final long path, final int height, 
+            final int cells, long[] buffer, int count) {
+        if (height == 0) {
+            if (buffer != null)
+                buffer[count] = path;
+            return count + 1;
+        }
+        if (buffer == null) {
+            int n = 1;
+            for (int i = 0; i < height; ++i)
+                n *= cells;
+            return count + n;
+        }
+        for (int i = 0; i < cells; ++i) {
+            count = collectEmptyImpl(
+                    CellPath.child(path, i), height - 1, cells, buffer, count);
+        }
+        return count;
+    }
+    
+    
+    
+    
+    static class PlayContextImpl implements Grid.PlayContext {
+        
+        private final Flag flag;
+        
+        private final GridCoord coord;
+        
+        
+        
+        
+        PlayContextImpl(Flag flag, GridCoord coord) {
+            this.flag = flag;
+            this.coord = coord;
+        }
+        
+        
+        
+        
+        public Flag getFlag() {
+            return flag;
+        }
+        
+        public GridCoord getCoord() {
+            return coord;
+        }
+        
+    }
+    
+}
@@ -18,8 +18,8 @@ package ca.raihan.tictactoe.game;
 
 import ca.raihan.util.Contract;
 
+import ca.raihan.event.EmptyEventContext;
 import ca.raihan.event.EventContext;
-import ca.raihan.event.EventListener;
 import ca.raihan.event.PrivilegedEvent;
 
 import ca.raihan.tictactoe.players.Player;
@@ -28,45 +28,45 @@ import ca.raihan.tictactoe.players.Player;
  *
  * @author Pranjal Raihan
  */
-public class AWTTurnManager implements TurnManager {
-    
-    private AWTGrid grid;
+public class HeadlessTurnManager implements TurnManager {
     
     private final PrivilegedEvent<EventContext> nextTurn;
     
     private final PrivilegedEvent<EventContext> endTurn;
     
+    private final Object eventKey;
+    
     private boolean p1Turn = true;
     
-    private final AWTGameManager gameManager;
+    private final HeadlessGameManager gameManager;
     
     
     
     
-    public AWTTurnManager(AWTGameManager gameManager, Object eventKey) {
+    HeadlessTurnManager(HeadlessGameManager gameManager, Object eventKey) {
+        this.gameManager = Contract.nonNull(gameManager);
+        this.eventKey = Contract.nonNull(eventKey);
         nextTurn = new PrivilegedEvent<>(eventKey);
         endTurn = new PrivilegedEvent<>(eventKey);
-        this.gameManager = Contract.nonNull(gameManager);
-        nextTurnEvent().addListener(new EventListener<EventContext>() {
-
-            @Override
-            public void onEvent(Object sender, EventContext context) {
-                p1Turn ^= true;
-            }
-            
-        });
     }
     
+    
+    
+    
     public Player getCurrentPlayer() {
-        return p1Turn ? 
-                gameManager.getPlayer(Flag.PLAYER_ONE) : 
-                gameManager.getPlayer(Flag.PLAYER_TWO);
+        return gameManager.getPlayer(getCurrentFlag());
+    }
+    
+    public Flag getCurrentFlag() {
+        return p1Turn ? Flag.PLAYER_ONE : Flag.PLAYER_TWO;
     }
     
     public void start() {
+        HeadlessGrid grid = gameManager.getGridImpl();
         if (grid == null) {
             throw new IllegalStateException("Grids not created");
         }
+        p1Turn = true;
         grid.start();
     }
     
@@ -78,4 +78,20 @@ public class AWTTurnManager implements TurnManager {
         return endTurn;
     }
     
+    
+    
+    
+    void nextTurnImpl(Object sender) {
+        p1Turn ^= true;
+        if (!gameManager.isMutedImpl() && nextTurn.hasListeners()) {
+            nextTurn.raise(eventKey, sender, new EmptyEventContext());
+        }
+    }
+    
+    void endImpl(Object sender) {
+        if (endTurn.hasListeners()) {
+            endTurn.raise(eventKey, sender, new EmptyEventContext());
+        }
+    }
+    
 }
@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+/**
+ * Outcome of checking a move, for callers that turn down many bad moves and 
+ * cannot afford an exception for each. Working one out throws nothing and 
+ * allocates nothing.
+ * <p>
+ * A move that is wrong in more than one way gets the first status that 
+ * applies, in the order they are declared.
+ *
+ * @author Pranjal Raihan
+ * 
+ * @see HeadlessGameManager#validate(long)
+ * @see GameState#validate(long)
+ */
+public enum MoveStatus {
+    
+    /**
+     * The move can be played.
+     */
+    OK,
+    
+    /**
+     * The game was not started yet.
+     */
+    NOT_STARTED,
+    
+    /**
+     * The game was won or drawn.
+     */
+    GAME_OVER,
+    
+    /**
+     * The path is not the path of a cell of the game: it is too short, too 
+     * long or goes past the last child of a grid.
+     */
+    OUT_OF_BOUNDS,
+    
+    /**
+     * The cell is not in the top level grid the player was sent to.
+     */
+    WRONG_SUBGRID,
+    
+    /**
+     * The cell, or a grid it is in, was already won or drawn.
+     */
+    OCCUPIED
+    
+}
@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.Contract;
+
+/**
+ * The rules of the game over packed {@code int}s, for stores that keep 
+ * many games without an object per grid. How the {@code int}s are stored 
+ * is left to subclasses, the rules only see them through 
+ * {@link #getGrid(int, int, int)} and {@link #getGame(int, int)}.
+ * <p>
+ * The grids of a game are numbered top down, the top level grid is 
+ * {@code 0} and child {@code i} of grid {@code k} is 
+ * {@code k * cells + 1 + i}. Each grid has the masks of its children as 
+ * in {@link GameState} and the number of open cells below it, so a move 
+ * only touches the {@code O(depth)} grids on its path and the 
+ * {@code n}-th legal move is found without listing them.
+ *
+ * @author Pranjal Raihan
+ */
+abstract class PackedGames {
+    
+    static final int GRID_PLAYER_ONE = 0;
+    
+    static final int GRID_PLAYER_TWO = 1;
+    
+    static final int GRID_DRAWN = 2;
+    
+    static final int GRID_OPEN = 3;
+    
+    static final int GRID_FIELDS = 4;
+    
+    static final int GAME_RESULT = 0;
+    
+    static final int GAME_SIDE = 1;
+    
+    static final int GAME_ACTIVE = 2;
+    
+    static final int GAME_MOVES = 3;
+    
+    static final int GAME_FIELDS = 4;
+    
+    /**
+     * Values of {@link #GAME_RESULT}, the same codes as 
+     * {@link GameStateCodec}.
+     */
+    static final int PLAYING = GameStateCodec.EMPTY;
+    
+    static final int PLAYER_ONE_WON = GameStateCodec.PLAYER_ONE;
+    
+    static final int PLAYER_TWO_WON = GameStateCodec.PLAYER_TWO;
+    
+    static final int DRAWN = GameStateCodec.DRAWN;
+    
+    
+    
+    
+    final GridRules rules;
+    
+    final int depth;
+    
+    final int cells;
+    
+    final int full;
+    
+    /**
+     * Number of grids of one game.
+     */
+    final int grids;
+    
+    /**
+     * Open cells below an empty grid, by level.
+     */
+    private final int[] emptyOpen;
+    
+    
+    
+    
+    /**
+     * @param rules the rules of every game
+     * @param depth the depth of every game, at least {@code 1}
+     */
+    PackedGames(GridRules rules, final int depth) {
+        this.rules = Contract.nonNull(rules);
+        Contract.require(depth >= 1, "depth < 1");
+        Contract.require(depth <= CellPath.MAX_DEPTH, "depth too large");
+        this.depth = depth;
+        this.cells = rules.getCellCount();
+        this.full = (1 << cells) - 1;
+        long n = 0L;
+        long leaves = 1L;
+        for (int i = 0; i < depth; ++i) {
+            n += leaves;
+            leaves *= cells;
+        }
+        Contract.require(leaves <= Integer.MAX_VALUE, "depth too large");
+        this.grids = (int) n;
+        emptyOpen = new int[depth];
+        for (int level = depth - 1, o = cells; level >= 0; --level) {
+            emptyOpen[level] = o;
+            o *= cells;
+        }
+    }
+    
+    
+    
+    
+    public GridRules getRules() {
+        return rules;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    
+    
+    
+    abstract int getGrid(int game, int grid, int field);
+    
+    abstract void setGrid(int game, int grid, int field, int value);
+    
+    abstract int getGame(int game, int field);
+    
+    abstract void setGame(int game, int field, int value);
+    
+    /**
+     * @return the most legal moves a game can have
+     */
+    final int maxLegalMovesImpl() {
+        return emptyOpen[0];
+    }
+    
+    static Flag winnerImpl(final int result) {
+        switch (result) {
+            case PLAYER_ONE_WON:
+                return Flag.PLAYER_ONE;
+            case PLAYER_TWO_WON:
+                return Flag.PLAYER_TWO;
+            default:
+                return Flag.NONE;
+        }
+    }
+    
+    final void resetImpl(final int game) {
+        for (int level = 0, first = 0, count = 1; level < depth; ++level) {
+            for (int k = first; k < first + count; ++k) {
+                setGrid(game, k, GRID_PLAYER_ONE, 0);
+                setGrid(game, k, GRID_PLAYER_TWO, 0);
+                setGrid(game, k, GRID_DRAWN, 0);
+                setGrid(game, k, GRID_OPEN, emptyOpen[level]);
+            }
+            first += count;
+            count *= cells;
+        }
+        setGame(game, GAME_RESULT, PLAYING);
+        setGame(game, GAME_SIDE, 0);
+        setGame(game, GAME_ACTIVE, HeadlessGameManager.FREE);
+        setGame(game, GAME_MOVES, 0);
+    }
+    
+    final Flag currentFlagImpl(final int game) {
+        return getGame(game, GAME_SIDE) == 0 ? 
+                Flag.PLAYER_ONE : Flag.PLAYER_TWO;
+    }
+    
+    private int closedImpl(final int game, final int grid) {
+        return getGrid(game, grid, GRID_PLAYER_ONE) 
+                | getGrid(game, grid, GRID_PLAYER_TWO) 
+                | getGrid(game, grid, GRID_DRAWN);
+    }
+    
+    /**
+     * @return the grid the current player must play in, {@code 0} if they 
+     * are free to play anywhere
+     */
+    private int startImpl(final int game) {
+        final int a = getGame(game, GAME_ACTIVE);
+        return a == HeadlessGameManager.FREE ? 0 : 1 + a;
+    }
+    
+    final int legalMoveCountImpl(final int game) {
+        if (getGame(game, GAME_RESULT) != PLAYING) {
+            return 0;
+        }
+        return getGrid(game, startImpl(game), GRID_OPEN);
+    }
+    
+    final int legalMovesImpl(final int game, long[] buffer) {
+        if (getGame(game, GAME_RESULT) != PLAYING) {
+            return 0;
+        }
+        final int a = getGame(game, GAME_ACTIVE);
+        return a == HeadlessGameManager.FREE ? 
+                collectImpl(game, 0, 0, CellPath.ROOT, buffer, 0) : 
+                collectImpl(game, 1 + a, 1, 
+                        CellPath.child(CellPath.ROOT, a), buffer, 0);
+    }
+    
+    private int collectImpl(final int game, final int grid, final int level, 
+            final long path, long[] buffer, int count) {
+        for (int free = full & ~closedImpl(game, grid); free != 0; 
+                free &= free - 1) {
+            final int cell = Integer.numberOfTrailingZeros(free);
+            final long child = CellPath.child(path, cell);
+            if (level == depth - 1) {
+                buffer[count++] = child;
+            } else {
+                count = collectImpl(game, grid * cells + 1 + cell, 
+                        level + 1, child, buffer, count);
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Walks down from the grid the player is in, skipping whole children 
+     * by their number of open cells.
+     * 
+     * @param n from {@code 0} to {@link #legalMoveCountImpl(int)} - 1
+     * 
+     * @return the {@code n}-th legal move
+     */
+    final long pickImpl(final int game, int n) {
+        final int a = getGame(game, GAME_ACTIVE);
+        int grid = 0;
+        int level = 0;
+        long path = CellPath.ROOT;
+        if (a != HeadlessGameManager.FREE) {
+            grid = 1 + a;
+            level = 1;
+            path = CellPath.child(path, a);
+        }
+        for (; level < depth - 1; ++level) {
+            int free = full & ~closedImpl(game, grid);
+            for (;; free &= free - 1) {
+                final int cell = Integer.numberOfTrailingZeros(free);
+                final int child = grid * cells + 1 + cell;
+                final int o = getGrid(game, child, GRID_OPEN);
+                if (n < o) {
+                    grid = child;
+                    path = CellPath.child(path, cell);
+                    break;
+                }
+                n -= o;
+            }
+        }
+        int free = full & ~closedImpl(game, grid);
+        for (; n > 0; --n) {
+            free &= free - 1;
+        }
+        return CellPath.child(path, Integer.numberOfTrailingZeros(free));
+    }
+    
+    final boolean isLegalImpl(final int game, final long path) {
+        if (getGame(game, GAME_RESULT) != PLAYING || path == CellPath.NONE 
+                || CellPath.depth(path) != depth) {
+            return false;
+        }
+        final int a = getGame(game, GAME_ACTIVE);
+        if (a != HeadlessGameManager.FREE && CellPath.index(path, 0) != a) {
+            return false;
+        }
+        int grid = 0;
+        for (int i = 0; i < depth; ++i) {
+            final int cell = CellPath.index(path, i);
+            if (cell >= cells || (closedImpl(game, grid) & (1 << cell)) != 0) {
+                return false;
+            }
+            grid = grid * cells + 1 + cell;
+        }
+        return true;
+    }
+    
+    /**
+     * Same rules as {@link GameState#play(long)}. The move must be legal.
+     */
+    final void playImpl(final int game, final long path) {
+        final boolean two = getGame(game, GAME_SIDE) != 0;
+        final int flagField = two ? GRID_PLAYER_TWO : GRID_PLAYER_ONE;
+        int grid = 0;
+        for (int i = 0; i < depth; ++i) {
+            setGrid(game, grid, GRID_OPEN, 
+                    getGrid(game, grid, GRID_OPEN) - 1);
+            if (i < depth - 1)
+                grid = grid * cells + 1 + CellPath.index(path, i);
+        }
+        // grid is now the grid of the cell, close grids bottom up
+        int newActive = getGame(game, GAME_ACTIVE);
+        boolean won = true;
+        boolean over = false;
+        for (int i = depth - 1; i >= 0; --i) {
+            final int cell = CellPath.index(path, i);
+            final int field = won ? flagField : GRID_DRAWN;
+            if (i + 1 > 1) {
+                newActive = cell;
+            }
+            setGrid(game, grid, field, 
+                    getGrid(game, grid, field) | (1 << cell));
+            if (i < depth - 1) {
+                // The open cells of the closed child leave every grid above
+                final int child = grid * cells + 1 + cell;
+                final int o = getGrid(game, child, GRID_OPEN);
+                setGrid(game, child, GRID_OPEN, 0);
+                for (int k = grid; o != 0; k = (k - 1) / cells) {
+                    setGrid(game, k, GRID_OPEN, 
+                            getGrid(game, k, GRID_OPEN) - o);
+                    if (k == 0)
+                        break;
+                }
+            }
+            won = won 
+                    && rules.isWonImpl(getGrid(game, grid, flagField), cell);
+            if (!won && !rules.isDeadImpl(getGrid(game, grid, GRID_PLAYER_ONE), 
+                    getGrid(game, grid, GRID_PLAYER_TWO), 
+                    getGrid(game, grid, GRID_DRAWN))) {
+                break;
+            }
+            if (grid == 0) {
+                over = true;
+                break;
+            }
+            grid = (grid - 1) / cells;
+        }
+        if (over) {
+            setGame(game, GAME_RESULT, won ? 
+                    (two ? PLAYER_TWO_WON : PLAYER_ONE_WON) : DRAWN);
+            newActive = HeadlessGameManager.FREE;
+        } else if (newActive != HeadlessGameManager.FREE 
+                && (closedImpl(game, 0) & (1 << newActive)) != 0) {
+            newActive = HeadlessGameManager.FREE;
+        }
+        setGame(game, GAME_ACTIVE, newActive);
+        setGame(game, GAME_SIDE, two ? 0 : 1);
+        setGame(game, GAME_MOVES, getGame(game, GAME_MOVES) + 1);
+    }
+    
+    /**
+     * @return the state of a game, without history
+     */
+    final GameState stateImpl(final int game) {
+        final int result = getGame(game, GAME_RESULT);
+        return GameState.restoreImpl(rules, depth, 
+                nodeImpl(game, 0, 0, CellPath.ROOT), winnerImpl(result), 
+                result != PLAYING, currentFlagImpl(game), 
+                getGame(game, GAME_ACTIVE));
+    }
+    
+    private GameState.Node nodeImpl(final int game, final int grid, 
+            final int level, final long path) {
+        final int p1 = getGrid(game, grid, GRID_PLAYER_ONE);
+        final int p2 = getGrid(game, grid, GRID_PLAYER_TWO);
+        GameState.Node[] children = null;
+        if (level < depth - 1) {
+            children = new GameState.Node[cells];
+            for (int i = 0; i < cells; ++i) {
+                if (((p1 | p2) & (1 << i)) == 0) {
+                    children[i] = nodeImpl(game, grid * cells + 1 + i, 
+                            level + 1, CellPath.child(path, i));
+                }
+            }
+        }
+        return GameState.Node.of(path, p1, p2, 
+                getGrid(game, grid, GRID_DRAWN), children);
+    }
+    
+    /**
+     * Puts {@code state} in a game. The move count starts over.
+     * 
+     * @throws IllegalArgumentException if the rules or depth of 
+     * {@code state} are not those of this store
+     */
+    final void loadImpl(final int game, GameState state) {
+        if (!rules.equals(state.getRules()) || depth != state.getDepth()) {
+            throw new IllegalArgumentException(
+                    "State does not fit: " + state.getRules() 
+                    + ", depth " + state.getDepth());
+        }
+        final Flag winner = state.getWinner();
+        resetImpl(game);
+        if (winner == Flag.NONE) {
+            loadImpl(game, state.getRootImpl(), 0, 0);
+        }
+        setGame(game, GAME_RESULT, !state.isOver() ? PLAYING : 
+                winner == Flag.PLAYER_ONE ? PLAYER_ONE_WON : 
+                winner == Flag.PLAYER_TWO ? PLAYER_TWO_WON : DRAWN);
+        setGame(game, GAME_SIDE, 
+                state.getCurrentFlag() == Flag.PLAYER_ONE ? 0 : 1);
+        setGame(game, GAME_ACTIVE, state.getActiveIndex());
+    }
+    
+    /**
+     * @return the number of open cells below {@code grid}
+     */
+    private int loadImpl(final int game, GameState.Node node, final int grid, 
+            final int level) {
+        setGrid(game, grid, GRID_PLAYER_ONE, node.p1);
+        setGrid(game, grid, GRID_PLAYER_TWO, node.p2);
+        setGrid(game, grid, GRID_DRAWN, node.drawn);
+        final int free = full & ~(node.p1 | node.p2 | node.drawn);
+        int o = 0;
+        if (level == depth - 1) {
+            o = Integer.bitCount(free);
+        } else {
+            for (int i = 0; i < cells; ++i) {
+                GameState.Node child = node.children[i];
+                if (child != null) {
+                    final int n = loadImpl(game, child, 
+                            grid * cells + 1 + i, level + 1);
+                    if ((free & (1 << i)) != 0)
+                        o += n;
+                }
+            }
+        }
+        setGrid(game, grid, GRID_OPEN, o);
+        return o;
+    }
+    
+}
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.players.Player;
+
+/**
+ * Counts the move sequences of a given length from a position, the usual 
+ * way to check a move generator and to measure how fast it is. A sequence 
+ * ends early when the game is over, so it is not counted.
+ * <p>
+ * Positions can be walked through the persistent {@link GameState}, 
+ * through a {@link HeadlessGameManager}, which plays and takes back every 
+ * move in place with its journal, or through a {@link SearchBoard}. All 
+ * must give the same counts. {@code divide} gives the count below each 
+ * legal move, spreading the moves over a pool of threads. 
+ * {@link #check()} compares the three with known counts of classic games.
+ *
+ * @author Pranjal Raihan
+ */
+public final class Perft extends __UninstantiableImpl {
+    
+    /**
+     * Sequences of each length from the start of a classic game of depth 
+     * {@code 1}, from {@code 0} plies to {@code 9}: the well known counts 
+     * of tic-tac-toe.
+     */
+    private static final long[] CLASSIC_COUNTS = { 1L, 9L, 72L, 504L, 
+            3024L, 15120L, 54720L, 148176L, 200448L, 104832L };
+    
+    /**
+     * Sequences of each length from the start of a classic game of depth 
+     * {@code 2}, from {@code 0} plies to {@code 6}. The first grids are 
+     * won on the fifth ply, sending the next player to a closed grid.
+     */
+    private static final long[] DEPTH_TWO_COUNTS = { 1L, 81L, 720L, 6336L, 
+            55080L, 473256L, 4020960L };
+    
+    /**
+     * The moves of a classic game of depth {@code 2}, {@code 9} times the 
+     * top level index plus the cell index. Grids were won by both players 
+     * and drawn, the player to move is free to play anywhere, and more 
+     * grids are won and drawn in the next few plies.
+     */
+    private static final int[] MIDGAME = { 57, 28, 10, 15, 62, 74, 20, 24, 
+            59, 51, 61, 65, 21, 34, 71, 75, 29, 23, 45, 2, 18, 5, 47, 19, 12, 
+            31, 41, 46, 13, 38, 25, 64, 14, 49, 39, 50, 53, 77, 52, 68, 48 };
+    
+    /**
+     * Sequences of each length after {@link #MIDGAME}, from {@code 0} 
+     * plies to {@code 5}.
+     */
+    private static final long[] MIDGAME_COUNTS = { 1L, 31L, 337L, 3795L, 
+            38759L, 407489L };
+    
+    private Perft() {
+    }
+    
+    
+    
+    
+    /**
+     * @param state the position
+     * @param plies the length of the sequences
+     * 
+     * @return the number of sequences of {@code plies} legal moves from 
+     * {@code state}
+     */
+    public static long perft(GameState state, final int plies) {
+        Contract.nonNull(state);
+        Contract.require(plies >= 0, "plies < 0");
+        return perftImpl(state, plies, new long[plies + 1][]);
+    }
+    
+    /**
+     * Same as {@link #perft(GameState, int)} for the current position of a 
+     * game, which is left as it was. The moves are played and taken back in 
+     * place without raising any event, and what 
+     * {@link HeadlessGameManager#redo()} can play again is kept.
+     * 
+     * @param game a started game
+     * @param plies the length of the sequences
+     * 
+     * @return the number of sequences of {@code plies} legal moves
+     */
+    public static long perft(HeadlessGameManager game, final int plies) {
+        Contract.nonNull(game);
+        Contract.require(plies >= 0, "plies < 0");
+        synchronized (game.mutex) {
+            return perftImpl(game, plies, new long[plies + 1][]);
+        }
+    }
+    
+    /**
+     * Same as {@link #perft(GameState, int)} for the current position of a 
+     * board, which is left as it was.
+     * 
+     * @param board the board
+     * @param plies the length of the sequences
+     * 
+     * @return the number of sequences of {@code plies} legal moves
+     */
+    public static long perft(SearchBoard board, final int plies) {
+        Contract.nonNull(board);
+        Contract.require(plies >= 0, "plies < 0");
+        return perftImpl(board, plies, new long[plies + 1][]);
+    }
+    
+    /**
+     * Walks classic games through {@link GameState}, a 
+     * {@link HeadlessGameManager} and a {@link SearchBoard}, and compares 
+     * the counts with the known ones: the game of depth {@code 1} to every 
+     * length, the game of depth {@code 2} from its start and from a 
+     * position where grids are being won and drawn. A change to the rules 
+     * or to a walk that gets a count wrong fails here.
+     * 
+     * @throws IllegalStateException if a count is wrong
+     */
+    public static void check() {
+        checkImpl(1, new long[0], CLASSIC_COUNTS);
+        checkImpl(2, new long[0], DEPTH_TWO_COUNTS);
+        final int cells = GridRules.CLASSIC.getCellCount();
+        long[] history = new long[MIDGAME.length];
+        for (int i = 0; i < history.length; ++i) {
+            history[i] = CellPath.child(CellPath.child(CellPath.ROOT, 
+                    MIDGAME[i] / cells), MIDGAME[i] % cells);
+        }
+        checkImpl(2, history, MIDGAME_COUNTS);
+    }
+    
+    /**
+     * Counts the sequences below each legal move of {@code state}, each move 
+     * on its own thread.
+     * 
+     * @param state the position
+     * @param plies the length of the sequences, at least {@code 1}
+     * @param threads the number of threads to use
+     * 
+     * @return the number of sequences starting with each legal move, in the 
+     * order of {@link GameState#legalMoves()}
+     * 
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static Map<Long, Long> divide(final GameState state, 
+            final int plies, final int threads) 
+            throws InterruptedException {
+        Contract.nonNull(state);
+        Contract.require(plies >= 1, "plies < 1");
+        long[] moves = state.legalMoves();
+        List<Callable<Long>> tasks = new ArrayList<>(moves.length);
+        for (final long move : moves) {
+            tasks.add(new Callable<Long>() {
+                
+                public Long call() {
+                    return perft(state.play(move), plies - 1);
+                }
+                
+            });
+        }
+        return divideImpl(moves, tasks, threads);
+    }
+    
+    /**
+     * Same as {@link #divide(GameState, int, int)}, walking the position 
+     * through a {@link HeadlessGameManager}. Each thread replays 
+     * {@code history} on a game of its own.
+     * 
+     * @param rules the rules of the game
+     * @param depth the depth of the game
+     * @param history the moves that lead to the position
+     * @param plies the length of the sequences, at least {@code 1}
+     * @param threads the number of threads to use
+     * 
+     * @return the number of sequences starting with each legal move
+     * 
+     * @throws IllegalArgumentException if a move of {@code history} is not 
+     * legal
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static Map<Long, Long> divide(final GridRules rules, 
+            final int depth, final long[] history, final int plies, 
+            final int threads) throws InterruptedException {
+        Contract.nonNull(rules);
+        Contract.nonNull(history);
+        Contract.require(plies >= 1, "plies < 1");
+        long[] moves = replayImpl(rules, depth, history, 
+                CellPath.NONE).legalMoves();
+        List<Callable<Long>> tasks = new ArrayList<>(moves.length);
+        for (final long move : moves) {
+            tasks.add(new Callable<Long>() {
+                
+                public Long call() {
+                    return perft(replayImpl(rules, depth, history, move), 
+                            plies - 1);
+                }
+                
+            });
+        }
+        return divideImpl(moves, tasks, threads);
+    }
+    
+    
+    
+    
+    private static long perftImpl(GameState state, final int plies, 
+            long[][] buffers) {
+        if (plies == 0) {
+            return 1L;
+        }
+        if (plies == 1) {
+            return state.legalMoveCount();
+        }
+        final int n = state.legalMoveCount();
+        long[] moves = bufferImpl(buffers, plies, n);
+        state.legalMoves(moves);
+        long count = 0L;
+        for (int i = 0; i < n; ++i) {
+            count += perftImpl(state.play(moves[i]), plies - 1, buffers);
+        }
+        return count;
+    }
+    
+    private static long perftImpl(HeadlessGameManager game, final int plies, 
+            long[][] buffers) {
+        if (plies == 0) {
+            return 1L;
+        }
+        if (plies == 1) {
+            return game.legalMoveCount();
+        }
+        final int n = game.legalMoveCount();
+        long[] moves = bufferImpl(buffers, plies, n);
+        game.legalMoves(moves);
+        long count = 0L;
+        for (int i = 0; i < n; ++i) {
+            game.makeImpl(moves[i]);
+            count += perftImpl(game, plies - 1, buffers);
+            game.unmakeImpl();
+        }
+        return count;
+    }
+    
+    /**
+     * @param counts the sequences of each length after {@code history}, 
+     * from {@code 0} plies
+     */
+    private static void checkImpl(final int depth, long[] history, 
+            long[] counts) {
+        final GridRules rules = GridRules.CLASSIC;
+        GameState state = GameState.initial(rules, depth);
+        for (long move : history) {
+            state = state.play(move);
+        }
+        HeadlessGameManager game = 
+                replayImpl(rules, depth, history, CellPath.NONE);
+        SearchBoard board = new SearchBoard(state);
+        for (int plies = 0; plies < counts.length; ++plies) {
+            checkImpl("GameState", depth, history, plies, counts[plies], 
+                    perft(state, plies));
+            checkImpl("HeadlessGameManager", depth, history, plies, 
+                    counts[plies], perft(game, plies));
+            checkImpl("SearchBoard", depth, history, plies, counts[plies], 
+                    perft(board, plies));
+        }
+    }
+    
+    private static void checkImpl(String walk, final int depth, 
+            long[] history, final int plies, final long expected, 
+            final long count) {
+        if (count != expected) {
+            throw new IllegalStateException("perft(" + plies + ") through " 
+                    + walk + " at depth " + depth + " after " 
+                    + history.length + " moves is " + count 
+                    + ", expected " + expected);
+        }
+    }
+    
+    private static long perftImpl(SearchBoard board, final int plies, 
+            long[][] buffers) {
+        if (plies == 0) {
+            return 1L;
+        }
+        if (plies == 1) {
+            return board.legalMoveCount();
+        }
+        final int n = board.legalMoveCount();
+        long[] moves = bufferImpl(buffers, plies, n);
+        board.legalMoves(moves);
+        long count = 0L;
+        for (int i = 0; i < n; ++i) {
+            board.play(moves[i]);
+            count += perftImpl(board, plies - 1, buffers);
+            board.undo();
+        }
+        return count;
+    }
+    
+    /**
+     * @return the buffer of a ply, grown to hold at least {@code n} moves
+     */
+    private static long[] bufferImpl(long[][] buffers, final int ply, 
+            final int n) {
+        long[] rv = buffers[ply];
+        if (rv == null || rv.length < n) {
+            buffers[ply] = rv = new long[n];
+        }
+        return rv;
+    }
+    
+    /**
+     * @param last a move to play after {@code history}, or 
+     * {@link CellPath#NONE}
+     */
+    private static HeadlessGameManager replayImpl(GridRules rules, 
+            final int depth, long[] history, final long last) {
+        HeadlessGameManager game = new HeadlessGameManager(
+                new GameInitParams<>(new PlayerImpl(), new PlayerImpl(), 
+                        null, rules.getDimension(), rules.getWinLength()));
+        game.createGridsLazily(depth);
+        game.start();
+        for (long move : history) {
+            playImpl(game, move);
+        }
+        if (last != CellPath.NONE) {
+            playImpl(game, last);
+        }
+        return game;
+    }
+    
+    private static void playImpl(HeadlessGameManager game, final long move) {
+        MoveStatus status = game.tryPlay(move);
+        if (status != MoveStatus.OK) {
+            throw new IllegalArgumentException("Illegal move: " 
+                    + CellPath.toString(game.getRules().getDimension(), move) 
+                    + " (" + status + ")");
+        }
+    }
+    
+    private static Map<Long, Long> divideImpl(long[] moves, 
+            List<Callable<Long>> tasks, final int threads) 
+            throws InterruptedException {
+        Contract.require(threads >= 1, "threads < 1");
+        Map<Long, Long> rv = new LinkedHashMap<>();
+        if (moves.length == 0) {
+            return rv;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(threads, moves.length));
+        try {
+            List<Future<Long>> counts = pool.invokeAll(tasks);
+            for (int i = 0; i < moves.length; ++i) {
+                rv.put(moves[i], counts.get(i).get());
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return rv;
+    }
+    
+    
+    
+    
+    private static class PlayerImpl implements Player {
+        
+        public String getCanonicalName() {
+            return "";
+        }
+        
+    }
+    
+}
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import java.util.Arrays;
+
+import ca.raihan.util.Contract;
+
+/**
+ * A single game that moves are played in and taken back from in place, 
+ * for searches that walk millions of positions. The game is packed as in 
+ * {@link PackedGames}, a move saves the {@code O(depth)} grids it touches 
+ * and {@link #undo()} puts them back, nothing is allocated once the 
+ * journal is big enough.
+ * <p>
+ * The {@link Zobrist} hash is kept up to date with every move and is the 
+ * same as the one of {@link GameState}.
+ * <p>
+ * This class does not synchronize, it is meant to be owned by a single 
+ * thread.
+ *
+ * @author Pranjal Raihan
+ */
+public final class SearchBoard extends PackedGames {
+    
+    private final int[] data;
+    
+    /**
+     * {@link GameState.Node#keys} of each grid.
+     */
+    private final long[] keys;
+    
+    private long hash;
+    
+    /**
+     * {@code int}s saved by a move: the game, then the grids on its path.
+     */
+    private final int frameSize;
+    
+    private int[] journal;
+    
+    /**
+     * Keys of the grids on the path of each move, then the hash.
+     */
+    private long[] journalKeys;
+    
+    private long[] moves;
+    
+    private int ply;
+    
+    /**
+     * The grids on the path of the move being played or taken back.
+     */
+    private final int[] pathGrids;
+    
+    
+    
+    
+    /**
+     * Creates an empty game.
+     * 
+     * @param rules the rules of the game
+     * @param depth the depth of the game, at least {@code 1}
+     */
+    public SearchBoard(GridRules rules, final int depth) {
+        this(rules, depth, null);
+    }
+    
+    /**
+     * Creates a game at {@code state}, without its history.
+     * 
+     * @param state the state of the game, of depth at least {@code 1}
+     */
+    public SearchBoard(GameState state) {
+        this(Contract.nonNull(state).getRules(), state.getDepth(), state);
+    }
+    
+    private SearchBoard(GridRules rules, final int depth, GameState state) {
+        super(rules, depth);
+        data = new int[GAME_FIELDS + GRID_FIELDS * grids];
+        keys = new long[grids];
+        frameSize = GAME_FIELDS + GRID_FIELDS * depth;
+        journal = new int[0];
+        journalKeys = new long[0];
+        moves = new long[0];
+        pathGrids = new int[depth];
+        if (state == null) {
+            resetImpl(0);
+        } else {
+            loadImpl(0, state);
+            setGame(0, GAME_MOVES, state.getMoveCount());
+            if (state.getWinner() == Flag.NONE) {
+                loadKeysImpl(state.getRootImpl(), 0, 0);
+            }
+        }
+        hash = hashImpl();
+    }
+    
+    
+    
+    
+    /**
+     * Plays a move.
+     * 
+     * @param path the {@link CellPath} of the cell
+     * 
+     * @return {@code false} if the move is not legal, in which case nothing 
+     * changes
+     */
+    public boolean play(final long path) {
+        if (!isLegalImpl(0, path)) {
+            return false;
+        }
+        makeImpl(path);
+        return true;
+    }
+    
+    /**
+     * Takes back the last move played on this board.
+     * 
+     * @return {@code false} if no move was played on this board
+     */
+    public boolean undo() {
+        if (ply == 0) {
+            return false;
+        }
+        final int p = --ply;
+        final long path = moves[p];
+        final int s = p * frameSize;
+        final int k = p * (depth + 1);
+        System.arraycopy(journal, s, data, 0, GAME_FIELDS);
+        for (int i = 0, grid = 0; i < depth; ++i) {
+            System.arraycopy(journal, s + GAME_FIELDS + GRID_FIELDS * i, 
+                    data, GAME_FIELDS + GRID_FIELDS * grid, GRID_FIELDS);
+            keys[grid] = journalKeys[k + i];
+            grid = grid * cells + 1 + CellPath.index(path, i);
+        }
+        hash = journalKeys[k + depth];
+        return true;
+    }
+    
+    /**
+     * @return the number of moves {@link #undo()} can take back
+     */
+    public int getUndoCount() {
+        return ply;
+    }
+    
+    /**
+     * @return the last move played on this board, {@link CellPath#NONE} if 
+     * there is none
+     */
+    public long getLastMove() {
+        return ply == 0 ? CellPath.NONE : moves[ply - 1];
+    }
+    
+    public boolean isLegal(final long path) {
+        return isLegalImpl(0, path);
+    }
+    
+    /**
+     * @param buffer where to put the paths, must be big enough for every 
+     * legal move (see {@link #legalMoveCount()})
+     * 
+     * @return the number of paths put in {@code buffer}
+     */
+    public int legalMoves(long[] buffer) {
+        Contract.nonNull(buffer);
+        return legalMovesImpl(0, buffer);
+    }
+    
+    public int legalMoveCount() {
+        return legalMoveCountImpl(0);
+    }
+    
+    /**
+     * Finds a legal move without listing them, in {@code O(depth)} for 
+     * random moves.
+     * 
+     * @param index from {@code 0} to {@link #legalMoveCount()} - 1
+     * 
+     * @return the legal move at {@code index} in the order of 
+     * {@link #legalMoves(long[])}
+     */
+    public long getLegalMove(final int index) {
+        if (index < 0 || index >= legalMoveCountImpl(0)) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        return pickImpl(0, index);
+    }
+    
+    /**
+     * @return the most legal moves a position of this game can have
+     */
+    public int getMaxLegalMoveCount() {
+        return maxLegalMovesImpl();
+    }
+    
+    public long getHash() {
+        return hash;
+    }
+    
+    public boolean isOver() {
+        return data[GAME_RESULT] != PLAYING;
+    }
+    
+    public boolean isDraw() {
+        return data[GAME_RESULT] == DRAWN;
+    }
+    
+    /**
+     * @return the flag of the player that won the game, {@code NONE} while 
+     * it is not over or if it was drawn
+     */
+    public Flag getWinner() {
+        return winnerImpl(data[GAME_RESULT]);
+    }
+    
+    public Flag getCurrentFlag() {
+        return currentFlagImpl(0);
+    }
+    
+    /**
+     * @return the index of the top level child the current player must 
+     * play in, or {@link HeadlessGameManager#FREE}
+     */
+    public int getActiveIndex() {
+        return data[GAME_ACTIVE];
+    }
+    
+    public int getMoveCount() {
+        return data[GAME_MOVES];
+    }
+    
+    /**
+     * A grid inside a closed grid keeps the marks it had when it closed.
+     * 
+     * @param path the {@link CellPath} of a grid, not a cell
+     * @param flag the owner of the cells, {@code NONE} for the drawn cells
+     * 
+     * @return the mask of the children of the grid closed that way
+     */
+    public int getMask(final long path, Flag flag) {
+        Contract.nonNull(flag);
+        final int d = CellPath.depth(path);
+        Contract.require(path != CellPath.NONE && d < depth, 
+                "not a grid of this game");
+        int grid = 0;
+        for (int i = 0; i < d; ++i) {
+            final int cell = CellPath.index(path, i);
+            Contract.require(cell < cells, "not a grid of this game");
+            grid = grid * cells + 1 + cell;
+        }
+        switch (flag) {
+            case PLAYER_ONE:
+                return getGrid(0, grid, GRID_PLAYER_ONE);
+            case PLAYER_TWO:
+                return getGrid(0, grid, GRID_PLAYER_TWO);
+            default:
+                return getGrid(0, grid, GRID_DRAWN);
+        }
+    }
+    
+    /**
+     * @return the state of the game, without history
+     */
+    public GameState getState() {
+        return stateImpl(0);
+    }
+    
+    
+    
+    
+    @Override
+    int getGrid(final int game, final int grid, final int field) {
+        return data[GAME_FIELDS + GRID_FIELDS * grid + field];
+    }
+    
+    @Override
+    void setGrid(final int game, final int grid, final int field, 
+            final int value) {
+        data[GAME_FIELDS + GRID_FIELDS * grid + field] = value;
+    }
+    
+    @Override
+    int getGame(final int game, final int field) {
+        return data[field];
+    }
+    
+    @Override
+    void setGame(final int game, final int field, final int value) {
+        data[field] = value;
+    }
+    
+    /**
+     * Saves the grids on the path of a legal move, plays it and works out 
+     * the keys of those grids again from the bottom up.
+     */
+    private void makeImpl(final long path) {
+        if (ply == moves.length) {
+            final int n = Math.max(16, 2 * ply);
+            journal = Arrays.copyOf(journal, n * frameSize);
+            journalKeys = Arrays.copyOf(journalKeys, n * (depth + 1));
+            moves = Arrays.copyOf(moves, n);
+        }
+        final int s = ply * frameSize;
+        final int k = ply * (depth + 1);
+        System.arraycopy(data, 0, journal, s, GAME_FIELDS);
+        for (int i = 0, grid = 0; i < depth; ++i) {
+            System.arraycopy(data, GAME_FIELDS + GRID_FIELDS * grid, 
+                    journal, s + GAME_FIELDS + GRID_FIELDS * i, GRID_FIELDS);
+            journalKeys[k + i] = keys[grid];
+            pathGrids[i] = grid;
+            grid = grid * cells + 1 + CellPath.index(path, i);
+        }
+        journalKeys[k + depth] = hash;
+        moves[ply++] = path;
+        final Flag flag = currentFlagImpl(0);
+        final int field = flag == Flag.PLAYER_ONE ? 
+                GRID_PLAYER_ONE : GRID_PLAYER_TWO;
+        playImpl(0, path);
+        // The played cell is a child accepted by its grid with no keys below
+        long childBefore = 0L;
+        long childAfter = Zobrist.key(path, flag);
+        for (int i = depth - 1; i >= 0; --i) {
+            final int grid = pathGrids[i];
+            final long before = keys[grid];
+            keys[grid] = before ^ childBefore ^ childAfter;
+            if (i > 0) {
+                final int bit = 1 << CellPath.index(path, i - 1);
+                childBefore = before;
+                childAfter = (getGrid(0, pathGrids[i - 1], field) & bit) != 0 ? 
+                        Zobrist.key(CellPath.ancestor(path, i), flag) : 
+                        keys[grid];
+            }
+        }
+        hash = hashImpl();
+    }
+    
+    private long hashImpl() {
+        final Flag winner = winnerImpl(data[GAME_RESULT]);
+        long rv = winner != Flag.NONE ? 
+                Zobrist.key(CellPath.ROOT, winner) : keys[0];
+        if (data[GAME_SIDE] != 0) {
+            rv ^= Zobrist.SIDE_TO_MOVE;
+        }
+        return rv ^ Zobrist.active(data[GAME_ACTIVE]);
+    }
+    
+    private void loadKeysImpl(GameState.Node node, final int grid, 
+            final int level) {
+        keys[grid] = node.keys;
+        if (level < depth - 1) {
+            for (int i = 0; i < cells; ++i) {
+                if (node.children[i] != null) {
+                    loadKeysImpl(node.children[i], grid * cells + 1 + i, 
+                            level + 1);
+                }
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+/**
+ * The 8 symmetries of a square grid: 4 rotations, each with or without a 
+ * mirror. A game looks the same after any of them as long as every level 
+ * is turned the same way, since a player is sent to the grid with the 
+ * index of the cell that was played. So positions that only differ by a 
+ * symmetry can share an entry in an opening book, a cache or a solver.
+ * <p>
+ * Transform {@code t} mirrors the columns if {@code t >= 4}, then turns 
+ * the grid a quarter clockwise {@code t % 4} times. Cells and masks of 
+ * cells are mapped with tables worked out once for every dimension; a 
+ * mask is mapped a byte at a time, so it takes at most 4 lookups.
+ *
+ * @author Pranjal Raihan
+ */
+public final class Symmetry extends __UninstantiableImpl {
+    
+    public static final int COUNT = 8;
+    
+    public static final int IDENTITY = 0;
+    
+    /**
+     * {@code CELLS[dimension][t][index]} is the index cell {@code index} is 
+     * moved to by transform {@code t}.
+     */
+    private static final int[][][] CELLS = 
+            new int[GridRules.MAX_DIMENSION + 1][][];
+    
+    /**
+     * {@code MASKS[dimension][t][b][bits]} is where transform {@code t} 
+     * moves the cells of byte {@code b} of a mask, when that byte is 
+     * {@code bits}.
+     */
+    private static final int[][][][] MASKS = 
+            new int[GridRules.MAX_DIMENSION + 1][][][];
+    
+    private static final int[] INVERSE = new int[COUNT];
+    
+    static {
+        for (int d = GridRules.MIN_DIMENSION; 
+                d <= GridRules.MAX_DIMENSION; ++d) {
+            final int cells = d * d;
+            final int bytes = (cells + 7) / 8;
+            CELLS[d] = new int[COUNT][cells];
+            MASKS[d] = new int[COUNT][bytes][256];
+            for (int t = 0; t < COUNT; ++t) {
+                for (int x = 0; x < d; ++x) {
+                    for (int y = 0; y < d; ++y) {
+                        int tx = x;
+                        int ty = t >= 4 ? d - 1 - y : y;
+                        for (int r = 0; r < t % 4; ++r) {
+                            final int s = tx;
+                            tx = ty;
+                            ty = d - 1 - s;
+                        }
+                        CELLS[d][t][d * x + y] = d * tx + ty;
+                    }
+                }
+                for (int b = 0; b < bytes; ++b) {
+                    for (int bits = 0; bits < 256; ++bits) {
+                        int m = 0;
+                        for (int i = 0; i < 8 && 8 * b + i < cells; ++i) {
+                            if ((bits & (1 << i)) != 0)
+                                m |= 1 << CELLS[d][t][8 * b + i];
+                        }
+                        MASKS[d][t][b][bits] = m;
+                    }
+                }
+            }
+        }
+        final int[][] cells = CELLS[GridRules.MIN_DIMENSION + 1];
+        for (int t = 0; t < COUNT; ++t) {
+            for (int u = 0; u < COUNT; ++u) {
+                boolean inverse = true;
+                for (int i = 0; i < cells[t].length && inverse; ++i) {
+                    inverse = cells[u][cells[t][i]] == i;
+                }
+                if (inverse) {
+                    INVERSE[t] = u;
+                }
+            }
+        }
+    }
+    
+    
+    
+    
+    private Symmetry() {
+    }
+    
+    
+    
+    
+    /**
+     * @param dimension the dimension of the grid
+     * @param transform the transform, {@code 0} to {@code COUNT - 1}
+     * @param index the index of a cell, as given by 
+     * {@link GridRules#coordToIndex(int, int)}
+     * 
+     * @return the index the cell is moved to
+     */
+    public static int cell(final int dimension, final int transform, 
+            final int index) {
+        checkImpl(dimension, transform);
+        return CELLS[dimension][transform][index];
+    }
+    
+    /**
+     * @param dimension the dimension of the grid
+     * @param transform the transform, {@code 0} to {@code COUNT - 1}
+     * @param mask cells of the grid, one bit per index
+     * 
+     * @return where the cells of {@code mask} are moved to
+     */
+    public static int mask(final int dimension, final int transform, 
+            final int mask) {
+        checkImpl(dimension, transform);
+        return maskImpl(MASKS[dimension][transform], mask);
+    }
+    
+    /**
+     * Moves every level of a path the same way.
+     * 
+     * @param dimension the dimension of the grids
+     * @param transform the transform, {@code 0} to {@code COUNT - 1}
+     * @param path a {@link CellPath}
+     * 
+     * @return the path {@code path} is moved to
+     */
+    public static long path(final int dimension, final int transform, 
+            long path) {
+        checkImpl(dimension, transform);
+        if (path == CellPath.NONE) {
+            return path;
+        }
+        final int[] cells = CELLS[dimension][transform];
+        for (int i = CellPath.depth(path) - 1; i >= 0; --i) {
+            path = CellPath.withIndex(
+                    path, i, cells[CellPath.index(path, i)]);
+        }
+        return path;
+    }
+    
+    /**
+     * @param transform the transform, {@code 0} to {@code COUNT - 1}
+     * 
+     * @return the transform that undoes {@code transform}
+     */
+    public static int inverse(final int transform) {
+        Contract.require(transform >= 0 && transform < COUNT, 
+                "transform out of bounds");
+        return INVERSE[transform];
+    }
+    
+    /**
+     * Turns every level of a state the same way. The state returned has no 
+     * history; grids no one played in are shared with {@code state}.
+     * 
+     * @param state the state to turn
+     * @param transform the transform, {@code 0} to {@code COUNT - 1}
+     * 
+     * @return the state {@code state} is moved to
+     */
+    public static GameState transform(GameState state, final int transform) {
+        Contract.nonNull(state);
+        final GridRules rules = state.getRules();
+        final int dimension = rules.getDimension();
+        checkImpl(dimension, transform);
+        GameState.Node root = state.getRootImpl();
+        if (root != null) {
+            root = transformImpl(root, transform, CellPath.ROOT, 
+                    dimension, rules.getCellCount());
+        }
+        return GameState.restoreImpl(rules, state.getDepth(), root, 
+                state.getWinner(), state.isOver(), state.getCurrentFlag(), 
+                activeImpl(dimension, transform, state.getActiveIndex()));
+    }
+    
+    /**
+     * Picks the transform that gives the smallest of the 8 states 
+     * {@code state} can be turned into, comparing the active grid and then 
+     * the grids top down. Every state a symmetry away from {@code state} 
+     * is turned into the same canonical state, so they also share its 
+     * {@link GameState#getHash() hash}.
+     * <p>
+     * Grids no one played in are recognized by their keys and not walked, 
+     * so this is cheap until the game fills up.
+     * 
+     * @param state the state
+     * 
+     * @return the transform to the canonical state, to be undone with 
+     * {@link #inverse(int)}
+     */
+    public static int canonicalTransform(GameState state) {
+        Contract.nonNull(state);
+        final int dimension = state.getRules().getDimension();
+        final int cells = state.getRules().getCellCount();
+        final int active = state.getActiveIndex();
+        final GameState.Node root = state.getRootImpl();
+        int best = IDENTITY;
+        for (int t = 1; t < COUNT; ++t) {
+            int c = Integer.compare(activeImpl(dimension, t, active), 
+                    activeImpl(dimension, best, active));
+            if (c == 0 && root != null) {
+                c = compareImpl(root, t, root, best, dimension, cells);
+            }
+            if (c < 0) {
+                best = t;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * @param state the state
+     * 
+     * @return the canonical state of {@code state}
+     * 
+     * @see #canonicalTransform(GameState)
+     */
+    public static GameState canonicalize(GameState state) {
+        return transform(state, canonicalTransform(state));
+    }
+    
+    
+    
+    
+    private static void checkImpl(final int dimension, final int transform) {
+        Contract.require(dimension >= GridRules.MIN_DIMENSION 
+                && dimension <= GridRules.MAX_DIMENSION, 
+                "dimension out of bounds");
+        Contract.require(transform >= 0 && transform < COUNT, 
+                "transform out of bounds");
+    }
+    
+    private static int maskImpl(int[][] tables, int mask) {
+        int rv = 0;
+        for (int b = 0; mask != 0; ++b, mask >>>= 8) {
+            rv |= tables[b][mask & 0xFF];
+        }
+        return rv;
+    }
+    
+    private static int activeImpl(final int dimension, final int transform, 
+            final int active) {
+        return active == HeadlessGameManager.FREE ? 
+                active : CELLS[dimension][transform][active];
+    }
+    
+    /**
+     * A grid no one played in has no keys and is the same whichever way it 
+     * is turned.
+     */
+    private static boolean isEmptyImpl(GameState.Node node) {
+        return node.keys == 0L && (node.p1 | node.p2 | node.drawn) == 0;
+    }
+    
+    private static GameState.Node transformImpl(GameState.Node node, 
+            final int transform, final long path, final int dimension, 
+            final int cells) {
+        if (transform == IDENTITY || isEmptyImpl(node)) {
+            return node;
+        }
+        final int[] moved = CELLS[dimension][transform];
+        final int[][] masks = MASKS[dimension][transform];
+        GameState.Node[] children = null;
+        if (node.children != null) {
+            children = new GameState.Node[cells];
+            for (int i = 0; i < cells; ++i) {
+                GameState.Node c = node.children[i];
+                if (c != null) {
+                    children[moved[i]] = transformImpl(c, transform, 
+                            CellPath.child(path, moved[i]), dimension, cells);
+                }
+            }
+        }
+        return GameState.Node.of(path, maskImpl(masks, node.p1), 
+                maskImpl(masks, node.p2), maskImpl(masks, node.drawn), 
+                children);
+    }
+    
+    /**
+     * Compares {@code a} turned by {@code ta} with {@code b} turned by 
+     * {@code tb}, without turning either.
+     */
+    private static int compareImpl(GameState.Node a, final int ta, 
+            GameState.Node b, final int tb, final int dimension, 
+            final int cells) {
+        if (a == b && ta == tb) {
+            return 0;
+        }
+        final int[][] ma = MASKS[dimension][ta];
+        final int[][] mb = MASKS[dimension][tb];
+        int c = Integer.compare(maskImpl(ma, a.p1), maskImpl(mb, b.p1));
+        if (c == 0)
+            c = Integer.compare(maskImpl(ma, a.p2), maskImpl(mb, b.p2));
+        if (c == 0)
+            c = Integer.compare(maskImpl(ma, a.drawn), maskImpl(mb, b.drawn));
+        if (c != 0 || a.children == null 
+                || (isEmptyImpl(a) && isEmptyImpl(b))) {
+            return c;
+        }
+        // Child i of the turned grids is child inverse(t)(i) of the grids
+        final int[] fromA = CELLS[dimension][INVERSE[ta]];
+        final int[] fromB = CELLS[dimension][INVERSE[tb]];
+        for (int i = 0; i < cells && c == 0; ++i) {
+            GameState.Node ca = a.children[fromA[i]];
+            if (ca != null) {
+                c = compareImpl(ca, ta, b.children[fromB[i]], tb, 
+                        dimension, cells);
+            }
+        }
+        return c;
+    }
+    
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.game;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+/**
+ * Zobrist keys of a game. The hash of a game is the XOR of the key of every 
+ * grid a player has accepted (cells and won grids alike), of 
+ * {@link #SIDE_TO_MOVE} while player two is to move and of the key of the 
+ * top level child the player was sent to. Every part can be added or 
+ * removed with a single XOR, so the hash is kept up to date as the game is 
+ * played.
+ * <p>
+ * What was played in a grid leaves the hash when the grid is won, so the 
+ * hash only depends on what is left of the game. Games that reach the same 
+ * position through different moves, or a game read back by 
+ * {@link GameStateCodec}, hash the same.
+ * <p>
+ * Keys are not drawn from a table but mixed from the {@link CellPath} of a 
+ * grid, so they cost no memory however deep the game is and are the same 
+ * for every game. Hashes of games with different {@link GridRules} should 
+ * not be compared.
+ *
+ * @author Pranjal Raihan
+ */
+public final class Zobrist extends __UninstantiableImpl {
+    
+    private static final long PLAYER_ONE_SALT = 0x6A09E667F3BCC908L;
+    
+    private static final long PLAYER_TWO_SALT = 0xBB67AE8584CAA73BL;
+    
+    private static final long ACTIVE_SALT = 0x3C6EF372FE94F82BL;
+    
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    
+    /**
+     * Key of player two being the one to move.
+     */
+    public static final long SIDE_TO_MOVE = mix(0x510E527FADE682D1L);
+    
+    
+    
+    
+    private Zobrist() {
+    }
+    
+    
+    
+    
+    /**
+     * @param path the {@link CellPath} of a grid
+     * @param flag the flag that accepted the grid
+     * 
+     * @return the key of {@code flag} owning the grid at {@code path}, 
+     * {@code 0} for {@link Flag#NONE}
+     */
+    public static long key(final long path, Flag flag) {
+        Contract.nonNull(flag);
+        switch (flag) {
+            case PLAYER_ONE:
+                return mix(path * GOLDEN_GAMMA + PLAYER_ONE_SALT);
+            case PLAYER_TWO:
+                return mix(path * GOLDEN_GAMMA + PLAYER_TWO_SALT);
+            default:
+                return 0L;
+        }
+    }
+    
+    /**
+     * @param index the index of the top level child the player was sent to, 
+     * or {@link HeadlessGameManager#FREE}
+     * 
+     * @return the key of the player being sent there, {@code 0} for 
+     * {@code FREE}
+     */
+    public static long active(final int index) {
+        if (index == HeadlessGameManager.FREE) {
+            return 0L;
+        }
+        return mix((index + 1) * GOLDEN_GAMMA + ACTIVE_SALT);
+    }
+    
+    
+    
+    
+    /**
+     * The finalizer of SplitMix64, a bijection that spreads every input bit 
+     * over the whole output.
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+}
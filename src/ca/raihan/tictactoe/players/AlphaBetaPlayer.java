@@ -0,0 +1,707 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.players;
+
+import java.util.Arrays;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.game.CellPath;
+import ca.raihan.tictactoe.game.ClassicTable;
+import ca.raihan.tictactoe.game.Flag;
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.GridRules;
+import ca.raihan.tictactoe.game.HeadlessGameManager;
+import ca.raihan.tictactoe.game.SearchBoard;
+
+/**
+ * A computer player. Moves are chosen by an iterative deepening alpha-beta 
+ * search (negamax) over a {@link SearchBoard}, trying the best move of the 
+ * transposition table first, then the killer moves of the ply, then the 
+ * moves that cut off most often. The search stops at the first of its 
+ * depth, node or time budget and answers with the best move of the 
+ * deepest search it finished.
+ * <p>
+ * A position the search does not see the end of is scored by how open 
+ * the windows of each grid are to each player, the value of a grid 
+ * standing in for the cell it is in its parent. Under the classic rules 
+ * a dead grid is worth nothing, and a grid of cells also counts its value 
+ * under perfect play and its wins in one move from {@link ClassicTable}.
+ * <p>
+ * The transposition table is kept from one move to the next, and can be 
+ * shared with players in other games. Its keys are the hashes of the 
+ * positions mixed with the rules and depth of the game, so games of 
+ * different rules do not mix up their positions. One move is chosen at a 
+ * time, other threads wait.
+ * <p>
+ * With an {@link OpeningBook} of the game, a position found in the book 
+ * is answered from it without a search.
+ *
+ * @author Pranjal Raihan
+ */
+public class AlphaBetaPlayer implements Player {
+    
+    public static final int DEFAULT_MAX_DEPTH = 64;
+    
+    public static final long DEFAULT_MAX_MILLIS = 50L;
+    
+    /**
+     * The transposition table has {@code 1 << DEFAULT_TABLE_BITS} entries.
+     */
+    public static final int DEFAULT_TABLE_BITS = 18;
+    
+    /**
+     * Score of a won game, less the plies it takes to win it.
+     */
+    private static final int WIN = 1 << 20;
+    
+    private static final int WIN_BOUND = WIN - 4096;
+    
+    private static final int INFINITY = WIN + 1;
+    
+    /**
+     * Score of a position worth as much as a won top level grid.
+     */
+    private static final int SCALE = 1000;
+    
+    /**
+     * Weights of the windows, the value under perfect play and the wins in 
+     * one move of a grid of cells of the classic rules, adding up to 
+     * {@code 1}.
+     */
+    private static final double WINDOW_WEIGHT = 0.5;
+    
+    private static final double GAME_WEIGHT = 0.3;
+    
+    private static final double THREAT_WEIGHT = 0.2;
+    
+    /**
+     * The budget is checked every {@code CHECK_INTERVAL + 1} nodes.
+     */
+    private static final int CHECK_INTERVAL = (1 << 10) - 1;
+    
+    private static final int HISTORY_BITS = 12;
+    
+    
+    
+    
+    private final Object mutex = new Object();
+    
+    private final String name;
+    
+    private final int maxDepth;
+    
+    private final long maxNodes;
+    
+    private final long maxNanos;
+    
+    private final TranspositionTable table;
+    
+    /**
+     * If the table is only used by this player, which then clears it in 
+     * {@link #clear()}.
+     */
+    private final boolean ownsTable;
+    
+    private final TranspositionTable.Entry found = 
+            new TranspositionTable.Entry();
+    
+    private final int[] history = new int[1 << HISTORY_BITS];
+    
+    private final OpeningBook.Entry bookEntry = new OpeningBook.Entry();
+    
+    private OpeningBook book;
+    
+    private long[][] killers = new long[0][];
+    
+    private long[][] moveLists = new long[0][];
+    
+    private int[][] moveScores = new int[0][];
+    
+    private GridRules windowRules;
+    
+    /**
+     * The cells of each window of the rules of the last game.
+     */
+    private int[][] windowCells;
+    
+    /**
+     * Chances of each player to own each child, by level.
+     */
+    private double[][] ownChances;
+    
+    private double[][] otherChances;
+    
+    private SearchBoard board;
+    
+    /**
+     * Mixed into the hashes of the game under search.
+     */
+    private long salt;
+    
+    private long nodes;
+    
+    private long deadline;
+    
+    private boolean aborted;
+    
+    /**
+     * Best move at the root of the search under way and its score.
+     */
+    private long rootMove;
+    
+    private int rootScore;
+    
+    private int lastDepth;
+    
+    private long lastNodes;
+    
+    private int lastScore;
+    
+    
+    
+    
+    /**
+     * Creates a player that thinks for {@link #DEFAULT_MAX_MILLIS} at most.
+     * 
+     * @param name the name of the player
+     */
+    public AlphaBetaPlayer(String name) {
+        this(name, DEFAULT_MAX_DEPTH, 0L, DEFAULT_MAX_MILLIS, 
+                DEFAULT_TABLE_BITS);
+    }
+    
+    /**
+     * @param name the name of the player
+     * @param maxDepth the most plies to search, at least {@code 1}
+     * @param maxNodes the most positions to search a move with, {@code 0} 
+     * for no limit
+     * @param maxMillis the most time to search a move for, {@code 0} for no 
+     * limit
+     * @param tableBits the transposition table of the player has 
+     * {@code 1 << tableBits} entries
+     * 
+     * @see TranspositionTable#TranspositionTable(int)
+     */
+    public AlphaBetaPlayer(String name, final int maxDepth, 
+            final long maxNodes, final long maxMillis, final int tableBits) {
+        this(name, maxDepth, maxNodes, maxMillis, 
+                new TranspositionTable(tableBits), true);
+    }
+    
+    /**
+     * @param name the name of the player
+     * @param maxDepth the most plies to search, at least {@code 1}
+     * @param maxNodes the most positions to search a move with, {@code 0} 
+     * for no limit
+     * @param maxMillis the most time to search a move for, {@code 0} for no 
+     * limit
+     * @param table the transposition table, which can be shared with other 
+     * players
+     */
+    public AlphaBetaPlayer(String name, final int maxDepth, 
+            final long maxNodes, final long maxMillis, 
+            TranspositionTable table) {
+        this(name, maxDepth, maxNodes, maxMillis, table, false);
+    }
+    
+    private AlphaBetaPlayer(String name, final int maxDepth, 
+            final long maxNodes, final long maxMillis, 
+            TranspositionTable table, final boolean ownsTable) {
+        this.name = Contract.nonNull(name);
+        Contract.require(maxDepth >= 1, "maxDepth < 1");
+        Contract.require(maxDepth <= TranspositionTable.MAX_DEPTH, 
+                "maxDepth too large");
+        Contract.require(maxNodes >= 0L, "maxNodes < 0");
+        Contract.require(maxMillis >= 0L, "maxMillis < 0");
+        this.maxDepth = maxDepth;
+        this.maxNodes = maxNodes;
+        this.maxNanos = maxMillis * 1000000L;
+        this.table = Contract.nonNull(table);
+        this.ownsTable = ownsTable;
+    }
+    
+    
+    
+    
+    public String getCanonicalName() {
+        return name;
+    }
+    
+    /**
+     * @param game a game that is not over
+     * 
+     * @return the {@link CellPath} of the move to play
+     * 
+     * @see HeadlessGameManager#play(long)
+     */
+    public long chooseMove(HeadlessGameManager game) {
+        return chooseMove(GameState.of(Contract.nonNull(game)));
+    }
+    
+    /**
+     * @param state a state that is not over
+     * 
+     * @return the {@link CellPath} of the move to play
+     */
+    public long chooseMove(GameState state) {
+        Contract.nonNull(state);
+        if (state.isOver()) {
+            throw new IllegalStateException("Game over");
+        }
+        Contract.require(state.getDepth() >= 1, "depth < 1");
+        synchronized (mutex) {
+            if (book != null && book.probe(state, bookEntry)) {
+                lastDepth = bookEntry.getDepth();
+                lastNodes = 0L;
+                lastScore = bookEntry.getScore();
+                return bookEntry.getMove();
+            }
+            return searchImpl(new SearchBoard(state));
+        }
+    }
+    
+    /**
+     * @return the depth of the deepest search the last move was chosen by
+     */
+    public int getLastDepth() {
+        synchronized (mutex) {
+            return lastDepth;
+        }
+    }
+    
+    /**
+     * @return the positions searched for the last move
+     */
+    public long getLastNodeCount() {
+        synchronized (mutex) {
+            return lastNodes;
+        }
+    }
+    
+    /**
+     * @return the score of the last move for the player who played it, 
+     * {@code 1000} being worth a won top level grid
+     */
+    public int getLastScore() {
+        synchronized (mutex) {
+            return lastScore;
+        }
+    }
+    
+    public TranspositionTable getTable() {
+        return table;
+    }
+    
+    public OpeningBook getOpeningBook() {
+        synchronized (mutex) {
+            return book;
+        }
+    }
+    
+    /**
+     * @param book the book to play the openings from, {@code null} to 
+     * search every move
+     */
+    public void setOpeningBook(OpeningBook book) {
+        synchronized (mutex) {
+            this.book = book;
+        }
+    }
+    
+    /**
+     * Forgets what was learnt from the moves searched so far. The 
+     * transposition table is emptied too unless it is shared, other players 
+     * are still using it.
+     */
+    public void clear() {
+        synchronized (mutex) {
+            if (ownsTable) {
+                table.clear();
+            }
+            Arrays.fill(history, 0);
+        }
+    }
+    
+    
+    
+    
+    private long searchImpl(SearchBoard b) {
+        board = b;
+        prepareImpl(b);
+        salt = saltImpl(b);
+        table.newGeneration();
+        nodes = 0L;
+        aborted = false;
+        deadline = System.nanoTime() + maxNanos;
+        long best = CellPath.NONE;
+        int bestScore = 0;
+        int reached = 0;
+        final int plies = Math.min(maxDepth, pliesLeftImpl(b));
+        for (int d = 1; d <= plies; ++d) {
+            rootMove = CellPath.NONE;
+            negamaxImpl(d, -INFINITY, INFINITY, 0, best);
+            // The best move so far is searched first, so a move from an 
+            // unfinished search is at least as good
+            if (rootMove != CellPath.NONE) {
+                best = rootMove;
+                bestScore = rootScore;
+            }
+            if (aborted) {
+                break;
+            }
+            reached = d;
+            if (Math.abs(bestScore) >= WIN_BOUND) {
+                break;
+            }
+        }
+        if (best == CellPath.NONE) {
+            b.legalMoves(moveLists[0]);
+            best = moveLists[0][0];
+        }
+        lastDepth = reached;
+        lastNodes = nodes;
+        lastScore = bestScore;
+        board = null;
+        return best;
+    }
+    
+    /**
+     * @param firstMove the move to search first at the root
+     */
+    private int negamaxImpl(final int depthLeft, int alpha, int beta, 
+            final int ply, final long firstMove) {
+        if ((++nodes & CHECK_INTERVAL) == 0) {
+            checkBudgetImpl();
+        }
+        if (aborted) {
+            return 0;
+        }
+        SearchBoard b = board;
+        if (b.isOver()) {
+            // The player to move did not play the winning move
+            return b.isDraw() ? 0 : ply - WIN;
+        }
+        if (depthLeft == 0) {
+            return evaluateImpl(b);
+        }
+        final long key = b.getHash() ^ salt;
+        long hashMove = firstMove;
+        if (ply > 0 && table.probe(key, found)) {
+            hashMove = found.getMove();
+            if (found.getDepth() >= depthLeft) {
+                final int score = fromTableImpl(found.getScore(), ply);
+                switch (found.getBound()) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, score);
+                        break;
+                    default:
+                        beta = Math.min(beta, score);
+                        break;
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+        long[] moves = moveLists[ply];
+        final int count = b.legalMoves(moves);
+        orderImpl(moves, moveScores[ply], count, hashMove, killers[ply]);
+        final int alphaBefore = alpha;
+        int best = -INFINITY;
+        long bestMove = CellPath.NONE;
+        for (int i = 0; i < count; ++i) {
+            final long move = nextMoveImpl(moves, moveScores[ply], i, count);
+            b.play(move);
+            final int score = -negamaxImpl(depthLeft - 1, -beta, -alpha, 
+                    ply + 1, CellPath.NONE);
+            b.undo();
+            if (aborted) {
+                return best;
+            }
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (ply == 0) {
+                    rootMove = move;
+                    rootScore = score;
+                }
+            }
+            if (score > alpha) {
+                alpha = score;
+            }
+            if (alpha >= beta) {
+                long[] k = killers[ply];
+                if (k[0] != move) {
+                    k[1] = k[0];
+                    k[0] = move;
+                }
+                history[historyIndexImpl(move)] += depthLeft * depthLeft;
+                break;
+            }
+        }
+        table.store(key, bestMove, toTableImpl(best, ply), depthLeft, 
+                best <= alphaBefore ? TranspositionTable.UPPER : 
+                best >= beta ? TranspositionTable.LOWER : 
+                TranspositionTable.EXACT);
+        return best;
+    }
+    
+    private void checkBudgetImpl() {
+        if ((maxNodes != 0L && nodes >= maxNodes) 
+                || (maxNanos != 0L && System.nanoTime() - deadline >= 0L)) {
+            aborted = true;
+        }
+    }
+    
+    /**
+     * SplitMix64 of the rules and depth.
+     */
+    private static long saltImpl(SearchBoard b) {
+        GridRules rules = b.getRules();
+        long z = 0x9E3779B97F4A7C15L * (1 + ((long) rules.getDimension() << 16 
+                | (long) rules.getWinLength() << 8 | b.getDepth()));
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
+    /**
+     * Won scores are kept in plies from the position, not from the root.
+     */
+    private static int toTableImpl(final int score, final int ply) {
+        if (score >= WIN_BOUND)
+            return score + ply;
+        if (score <= -WIN_BOUND)
+            return score - ply;
+        return score;
+    }
+    
+    private static int fromTableImpl(final int score, final int ply) {
+        if (score >= WIN_BOUND)
+            return score - ply;
+        if (score <= -WIN_BOUND)
+            return score + ply;
+        return score;
+    }
+    
+    private static int historyIndexImpl(final long move) {
+        return (int) ((move * 0x9E3779B97F4A7C15L) >>> (64 - HISTORY_BITS));
+    }
+    
+    private void orderImpl(long[] moves, int[] scores, final int count, 
+            final long hashMove, long[] killer) {
+        for (int i = 0; i < count; ++i) {
+            final long m = moves[i];
+            if (m == hashMove) {
+                scores[i] = Integer.MAX_VALUE;
+            } else if (m == killer[0]) {
+                scores[i] = Integer.MAX_VALUE - 2;
+            } else if (m == killer[1]) {
+                scores[i] = Integer.MAX_VALUE - 3;
+            } else {
+                scores[i] = Math.min(history[historyIndexImpl(m)], 
+                        Integer.MAX_VALUE - 4);
+            }
+        }
+    }
+    
+    /**
+     * Selection sort one move at a time, most nodes cut off after a few.
+     */
+    private static long nextMoveImpl(long[] moves, int[] scores, final int i, 
+            final int count) {
+        int best = i;
+        for (int j = i + 1; j < count; ++j) {
+            if (scores[j] > scores[best])
+                best = j;
+        }
+        final long m = moves[best];
+        moves[best] = moves[i];
+        moves[i] = m;
+        final int s = scores[best];
+        scores[best] = scores[i];
+        scores[i] = s;
+        return m;
+    }
+    
+    /**
+     * Sizes the buffers for the game of {@code b}.
+     */
+    private void prepareImpl(SearchBoard b) {
+        final GridRules rules = b.getRules();
+        final int cells = rules.getCellCount();
+        final int plies = maxDepth + 1;
+        final int width = b.getMaxLegalMoveCount();
+        if (moveLists.length < plies || moveLists[0].length < width) {
+            moveLists = new long[plies][width];
+            moveScores = new int[plies][width];
+            killers = new long[plies][2];
+        }
+        for (long[] k : killers) {
+            Arrays.fill(k, CellPath.NONE);
+        }
+        if (!rules.equals(windowRules) 
+                || ownChances.length < b.getDepth()) {
+            windowRules = rules;
+            windowCells = new int[rules.getWindowCount()][];
+            for (int w = 0; w < windowCells.length; ++w) {
+                final int mask = rules.getWindowMask(w);
+                int[] c = new int[Integer.bitCount(mask)];
+                for (int m = mask, i = 0; m != 0; m &= m - 1) {
+                    c[i++] = Integer.numberOfTrailingZeros(m);
+                }
+                windowCells[w] = c;
+            }
+            ownChances = new double[b.getDepth()][cells];
+            otherChances = new double[b.getDepth()][cells];
+        }
+    }
+    
+    /**
+     * @return at least the number of moves left to play
+     */
+    private static int pliesLeftImpl(SearchBoard b) {
+        return Math.max(1, b.getMaxLegalMoveCount() - b.getMoveCount());
+    }
+    
+    /**
+     * @return the score of the position for the player to move
+     */
+    private int evaluateImpl(SearchBoard b) {
+        final double v = valueImpl(b, CellPath.ROOT, 0);
+        final int score = (int) Math.round(v * SCALE);
+        return b.getCurrentFlag() == Flag.PLAYER_ONE ? score : -score;
+    }
+    
+    /**
+     * Each window is worth the chance of a player owning all of its cells, 
+     * an open cell being a coin toss and an open grid its own value. A 
+     * grid of the classic rules is worth nothing once dead, and a grid of 
+     * cells of the classic rules is also worth its value under perfect 
+     * play and the cells where each player wins it in one move, from 
+     * {@link ClassicTable}.
+     * 
+     * @return from {@code -1}, won by player two, to {@code 1}, won by 
+     * player one
+     */
+    private double valueImpl(SearchBoard b, final long path, final int level) {
+        final int p1 = b.getMask(path, Flag.PLAYER_ONE);
+        final int p2 = b.getMask(path, Flag.PLAYER_TWO);
+        final int drawn = b.getMask(path, Flag.NONE);
+        final boolean cellsBelow = level == b.getDepth() - 1;
+        if (windowRules.equals(GridRules.CLASSIC)) {
+            if (ClassicTable.isDead(p1, p2, drawn))
+                return 0.0;
+            if (cellsBelow)
+                return classicValueImpl(p1, p2);
+        }
+        double[] own = ownChances[level];
+        double[] other = otherChances[level];
+        for (int i = 0; i < own.length; ++i) {
+            final int bit = 1 << i;
+            if ((p1 & bit) != 0) {
+                own[i] = 1.0;
+                other[i] = 0.0;
+            } else if ((p2 & bit) != 0) {
+                own[i] = 0.0;
+                other[i] = 1.0;
+            } else if ((drawn & bit) != 0) {
+                own[i] = 0.0;
+                other[i] = 0.0;
+            } else if (cellsBelow) {
+                own[i] = 0.5;
+                other[i] = 0.5;
+            } else {
+                final double v = valueImpl(b, CellPath.child(path, i), 
+                        level + 1);
+                own[i] = (1.0 + v) / 2.0;
+                other[i] = (1.0 - v) / 2.0;
+            }
+        }
+        double sum = 0.0;
+        for (int[] window : windowCells) {
+            double a = 1.0;
+            double c = 1.0;
+            for (int cell : window) {
+                a *= own[cell];
+                c *= other[cell];
+            }
+            sum += a - c;
+        }
+        return sum / windowCells.length;
+    }
+    
+    /**
+     * The value of a grid of cells of the classic rules. Either player may 
+     * be sent to the grid next, so its value under perfect play is the 
+     * mean of the values with each player to move; a player who can win it 
+     * in one move is sure to win it when sent there.
+     */
+    private static double classicValueImpl(final int p1, final int p2) {
+        final double game = (ClassicTable.getValue(p1, p2, Flag.PLAYER_ONE) 
+                - ClassicTable.getValue(p1, p2, Flag.PLAYER_TWO)) / 2.0;
+        final double threat = 
+                Integer.signum(ClassicTable.getWinningCells(
+                        Flag.PLAYER_ONE, p1, p2, 0)) 
+                - Integer.signum(ClassicTable.getWinningCells(
+                        Flag.PLAYER_TWO, p1, p2, 0));
+        return WINDOW_WEIGHT * ClassicValues.VALUES[ClassicTable.index(p1, p2)] 
+                + GAME_WEIGHT * game + THREAT_WEIGHT * threat;
+    }
+    
+    
+    
+    
+    /**
+     * The values of the windows of every grid of cells of the classic 
+     * rules, by {@link ClassicTable#index(int, int)}, worked out when first 
+     * needed.
+     */
+    private static final class ClassicValues {
+        
+        private static final double[] VALUES = 
+                new double[ClassicTable.SIZE];
+        
+        static {
+            GridRules rules = GridRules.CLASSIC;
+            final int full = (1 << rules.getCellCount()) - 1;
+            for (int p1 = 0; p1 <= full; ++p1) {
+                for (int p2 = 0; p2 <= full; ++p2) {
+                    if ((p1 & p2) != 0)
+                        continue;
+                    double sum = 0.0;
+                    for (int w = 0; w < rules.getWindowCount(); ++w) {
+                        final int window = rules.getWindowMask(w);
+                        final double open = Math.pow(0.5, 
+                                Integer.bitCount(window & ~(p1 | p2)));
+                        if ((window & p2) == 0)
+                            sum += open;
+                        if ((window & p1) == 0)
+                            sum -= open;
+                    }
+                    VALUES[ClassicTable.index(p1, p2)] = 
+                            sum / rules.getWindowCount();
+                }
+            }
+        }
+        
+    }
+    
+}
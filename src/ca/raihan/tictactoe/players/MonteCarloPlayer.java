@@ -0,0 +1,493 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.players;
+
+import java.util.Arrays;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.game.CellPath;
+import ca.raihan.tictactoe.game.Flag;
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.HeadlessGameManager;
+import ca.raihan.tictactoe.game.SearchBoard;
+
+/**
+ * A computer player that chooses moves by Monte Carlo tree search. Every 
+ * worker thread walks down the same tree by UCT, grows it by one position 
+ * and plays the game out at random on its own {@link SearchBoard}, the 
+ * result going back up the path it took.
+ * <p>
+ * The tree takes no lock: the counts of a position are updated with 
+ * atomic adds, and its children are set once with a compare and set. A 
+ * worker walking down counts a virtual loss in each position on its way, 
+ * so the other workers spread out to other moves instead of all following 
+ * the same path, and takes it back once it knows the result. The workers 
+ * only share the tree, so the number of playouts grows with the number of 
+ * threads.
+ * <p>
+ * The move played most is chosen. One move is chosen at a time, other 
+ * threads wait.
+ * <p>
+ * The workers run in a {@link ForkJoinPool} the player does not own, the 
+ * common pool unless another is given, so players can be created and 
+ * dropped freely. Players of many games can share a pool.
+ *
+ * @author Pranjal Raihan
+ */
+public class MonteCarloPlayer implements Player {
+    
+    public static final long DEFAULT_MAX_MILLIS = 100L;
+    
+    /**
+     * The weight of trying moves that were played little, {@code sqrt(2)} 
+     * for results from {@code 0} to {@code 1}.
+     */
+    public static final double DEFAULT_EXPLORATION = Math.sqrt(2.0);
+    
+    /**
+     * Playouts a worker counts for each position it is walking through.
+     */
+    private static final int VIRTUAL_LOSS = 1;
+    
+    /**
+     * Result of a playout, in half points, for the player who played the 
+     * move of a position.
+     */
+    private static final int WIN = 2;
+    
+    private static final int DRAW = 1;
+    
+    private static final int LOSS = 0;
+    
+    
+    
+    
+    private final Object mutex = new Object();
+    
+    private final String name;
+    
+    private final int threads;
+    
+    private final long maxIterations;
+    
+    private final long maxNanos;
+    
+    private final double exploration;
+    
+    private final ForkJoinPool pool;
+    
+    private long lastIterations;
+    
+    private double lastWinRate;
+    
+    
+    
+    
+    /**
+     * Creates a player that thinks for {@link #DEFAULT_MAX_MILLIS} with a 
+     * worker for each thread of the common pool.
+     * <p>
+     * The common pool has one thread less than there are processors, and 
+     * is shared with everything else that runs in it, such as the games of 
+     * a {@link ca.raihan.tictactoe.game.BatchSimulator}. While other work 
+     * runs there the workers wait for threads and fewer playouts are made 
+     * in the time given; a player that runs beside such work should be 
+     * given a pool of its own with 
+     * {@link #MonteCarloPlayer(String, int, long, long, double, ForkJoinPool)}.
+     * 
+     * @param name the name of the player
+     */
+    public MonteCarloPlayer(String name) {
+        this(name, ForkJoinPool.getCommonPoolParallelism(), 0L, 
+                DEFAULT_MAX_MILLIS, DEFAULT_EXPLORATION);
+    }
+    
+    /**
+     * Creates a player whose workers run in the common pool, shared as 
+     * described for {@link #MonteCarloPlayer(String)}.
+     * 
+     * @param name the name of the player
+     * @param threads the number of workers, at least {@code 1}
+     * @param maxIterations the most playouts for a move, {@code 0} for no 
+     * limit
+     * @param maxMillis the most time to search a move for, {@code 0} for no 
+     * limit
+     * @param exploration the weight of trying moves that were played little
+     */
+    public MonteCarloPlayer(String name, final int threads, 
+            final long maxIterations, final long maxMillis, 
+            final double exploration) {
+        this(name, threads, maxIterations, maxMillis, exploration, 
+                ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * @param name the name of the player
+     * @param threads the number of workers, at least {@code 1}; more than 
+     * the parallelism of {@code pool} do not all run at once
+     * @param maxIterations the most playouts for a move, {@code 0} for no 
+     * limit
+     * @param maxMillis the most time to search a move for, {@code 0} for no 
+     * limit
+     * @param exploration the weight of trying moves that were played little
+     * @param pool the pool to run the workers in, which the player never 
+     * shuts down
+     */
+    public MonteCarloPlayer(String name, final int threads, 
+            final long maxIterations, final long maxMillis, 
+            final double exploration, ForkJoinPool pool) {
+        this.name = Contract.nonNull(name);
+        Contract.require(threads >= 1, "threads < 1");
+        Contract.require(maxIterations >= 0L, "maxIterations < 0");
+        Contract.require(maxMillis >= 0L, "maxMillis < 0");
+        Contract.require(maxIterations != 0L || maxMillis != 0L, 
+                "no budget");
+        Contract.require(exploration >= 0.0, "exploration < 0");
+        this.threads = threads;
+        this.maxIterations = maxIterations;
+        this.maxNanos = maxMillis * 1000000L;
+        this.exploration = exploration;
+        this.pool = Contract.nonNull(pool);
+    }
+    
+    
+    
+    
+    public String getCanonicalName() {
+        return name;
+    }
+    
+    public int getThreadCount() {
+        return threads;
+    }
+    
+    /**
+     * @param game a game that is not over
+     * 
+     * @return the {@link CellPath} of the move to play
+     * 
+     * @see HeadlessGameManager#play(long)
+     */
+    public long chooseMove(HeadlessGameManager game) {
+        return chooseMove(GameState.of(Contract.nonNull(game)));
+    }
+    
+    /**
+     * @param state a state that is not over
+     * 
+     * @return the {@link CellPath} of the move to play
+     */
+    public long chooseMove(GameState state) {
+        Contract.nonNull(state);
+        if (state.isOver()) {
+            throw new IllegalStateException("Game over");
+        }
+        Contract.require(state.getDepth() >= 1, "depth < 1");
+        synchronized (mutex) {
+            return searchImpl(state);
+        }
+    }
+    
+    /**
+     * @return the number of playouts the last move was chosen by
+     */
+    public long getLastIterationCount() {
+        synchronized (mutex) {
+            return lastIterations;
+        }
+    }
+    
+    /**
+     * @return the share of the playouts through the last move that its 
+     * player won, a draw counting for half
+     */
+    public double getLastWinRate() {
+        synchronized (mutex) {
+            return lastWinRate;
+        }
+    }
+    
+    
+    
+    
+    private long searchImpl(GameState state) {
+        final Node root = new Node(CellPath.NONE);
+        final long deadline = System.nanoTime() + maxNanos;
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            long share = maxIterations / threads;
+            if (i < maxIterations % threads) {
+                share++;
+            }
+            workers[i] = new Worker(state, root, share, deadline);
+        }
+        pool.invoke(new RecursiveAction() {
+            
+            @Override
+            protected void compute() {
+                invokeAll(workers);
+            }
+            
+        });
+        long iterations = 0L;
+        for (Worker w : workers) {
+            iterations += w.iterations;
+        }
+        Node best = null;
+        Node[] children = root.children;
+        if (children != null) {
+            for (Node c : children) {
+                if (best == null || c.visits > best.visits)
+                    best = c;
+            }
+        }
+        lastIterations = iterations;
+        if (best == null || best.visits == 0) {
+            // No playout was finished, any move will do
+            lastWinRate = 0.5;
+            return new SearchBoard(state).getLegalMove(0);
+        }
+        lastWinRate = best.score / (double) (WIN * best.visits);
+        return best.move;
+    }
+    
+    
+    
+    
+    /**
+     * A position of the tree, reached by playing {@link #move}.
+     */
+    private static final class Node {
+        
+        private static final AtomicIntegerFieldUpdater<Node> VISITS = 
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "visits");
+        
+        private static final AtomicIntegerFieldUpdater<Node> VIRTUAL = 
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "virtual");
+        
+        private static final AtomicLongFieldUpdater<Node> SCORE = 
+                AtomicLongFieldUpdater.newUpdater(Node.class, "score");
+        
+        private static final AtomicReferenceFieldUpdater<Node, Node[]> 
+                CHILDREN = AtomicReferenceFieldUpdater.newUpdater(
+                        Node.class, Node[].class, "children");
+        
+        
+        
+        
+        private final long move;
+        
+        private volatile int visits;
+        
+        /**
+         * Workers walking through the position, times
+         * {@link MonteCarloPlayer#VIRTUAL_LOSS}.
+         */
+        private volatile int virtual;
+        
+        /**
+         * Half points won by the player who played {@link #move}.
+         */
+        private volatile long score;
+        
+        private volatile Node[] children;
+        
+        
+        
+        
+        private Node(final long move) {
+            this.move = move;
+        }
+        
+        
+        
+        
+        /**
+         * @return the children, from this call or the one of a worker 
+         * that got there first
+         */
+        private Node[] expand(SearchBoard board, long[] buffer) {
+            final int count = board.legalMoves(buffer);
+            Node[] c = new Node[count];
+            for (int i = 0; i < count; ++i) {
+                c[i] = new Node(buffer[i]);
+            }
+            return CHILDREN.compareAndSet(this, null, c) ? c : children;
+        }
+        
+    }
+    
+    
+    
+    
+    private final class Worker extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        
+        
+        
+        private final SearchBoard board;
+        
+        private final Node root;
+        
+        private final long budget;
+        
+        private final long deadline;
+        
+        private final long[] buffer;
+        
+        /**
+         * The positions walked through by the playout under way and who 
+         * played into them.
+         */
+        private Node[] path;
+        
+        private Flag[] movers;
+        
+        private long iterations;
+        
+        
+        
+        
+        private Worker(GameState state, Node root, final long budget, 
+                final long deadline) {
+            this.board = new SearchBoard(state);
+            this.root = root;
+            this.budget = budget;
+            this.deadline = deadline;
+            this.buffer = new long[board.getMaxLegalMoveCount()];
+            this.path = new Node[16];
+            this.movers = new Flag[16];
+        }
+        
+        
+        
+        
+        @Override
+        protected void compute() {
+            while (!isDoneImpl()) {
+                iterateImpl();
+                iterations++;
+            }
+        }
+        
+        private boolean isDoneImpl() {
+            if (maxIterations != 0L && iterations >= budget) {
+                return true;
+            }
+            return maxNanos != 0L && System.nanoTime() - deadline >= 0L;
+        }
+        
+        /**
+         * Walks down to a leaf, grows the tree by one position, plays it 
+         * out and backs up the result.
+         */
+        private void iterateImpl() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            SearchBoard b = board;
+            final int start = b.getUndoCount();
+            int length = 0;
+            Node node = root;
+            while (!b.isOver()) {
+                Node[] children = node.children;
+                if (children == null) {
+                    if (node.visits == 0 && node != root) {
+                        break;
+                    }
+                    children = node.expand(b, buffer);
+                }
+                Node child = selectImpl(node, children, random);
+                Node.VIRTUAL.addAndGet(child, VIRTUAL_LOSS);
+                if (length == path.length) {
+                    path = Arrays.copyOf(path, 2 * length);
+                    movers = Arrays.copyOf(movers, 2 * length);
+                }
+                path[length] = child;
+                movers[length++] = b.getCurrentFlag();
+                b.play(child.move);
+                node = child;
+            }
+            final Flag winner = playoutImpl(b, random);
+            while (b.getUndoCount() > start) {
+                b.undo();
+            }
+            Node.VISITS.incrementAndGet(root);
+            for (int i = 0; i < length; ++i) {
+                Node n = path[i];
+                final int result = winner == Flag.NONE ? DRAW : 
+                        winner == movers[i] ? WIN : LOSS;
+                Node.SCORE.addAndGet(n, result);
+                Node.VISITS.incrementAndGet(n);
+                Node.VIRTUAL.addAndGet(n, -VIRTUAL_LOSS);
+                path[i] = null;
+            }
+        }
+        
+        /**
+         * UCT, a virtual loss counting as a playout lost. A move no worker 
+         * went through yet is taken first, from a random start so the 
+         * workers try different ones.
+         */
+        private Node selectImpl(Node parent, Node[] children, 
+                ThreadLocalRandom random) {
+            final int count = children.length;
+            final int offset = random.nextInt(count);
+            final double logParent = Math.log(Math.max(1, 
+                    parent.visits + parent.virtual));
+            Node best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; ++i) {
+                Node c = children[(offset + i) % count];
+                final int n = c.visits + c.virtual;
+                if (n == 0) {
+                    return c;
+                }
+                final double value = c.score / (double) (WIN * n) 
+                        + exploration * Math.sqrt(logParent / n);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        
+        /**
+         * Plays random moves to the end of the game.
+         * 
+         * @return the winner, {@code NONE} for a draw
+         */
+        private Flag playoutImpl(SearchBoard b, ThreadLocalRandom random) {
+            while (!b.isOver()) {
+                b.play(b.getLegalMove(random.nextInt(b.legalMoveCount())));
+            }
+            return b.getWinner();
+        }
+        
+    }
+    
+}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.players;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.game.CellPath;
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.GridRules;
+import ca.raihan.tictactoe.game.Symmetry;
+
+/**
+ * The best moves of the openings of one game, read from a file written by 
+ * {@link OpeningBookBuilder}. The file is mapped into memory, not read, so 
+ * a book opens at once however large it is, and its pages are shared by 
+ * every process reading it. Any number of threads can look moves up at 
+ * once.
+ * <p>
+ * The file starts with a header of {@link #HEADER_BYTES}: the 
+ * {@link #MAGIC} and {@link #VERSION} numbers, the dimension, win length 
+ * and depth of the game, an unused {@code int} and the number of entries, 
+ * a {@code long}. Then come the entries of {@link #ENTRY_BYTES}, sorted 
+ * by key: the {@link GameState#getHash() hash} of the 
+ * {@link Symmetry#canonicalize(GameState) canonical} position, the move 
+ * to play in it, its score and the plies it was searched for. A position 
+ * is found by binary search, in about {@code log2} of the number of 
+ * entries reads of the mapping. Every number is big-endian.
+ *
+ * @author Pranjal Raihan
+ */
+public final class OpeningBook {
+    
+    /**
+     * "TTOB".
+     */
+    public static final int MAGIC = 0x54544F42;
+    
+    public static final int VERSION = 1;
+    
+    public static final int HEADER_BYTES = 32;
+    
+    public static final int ENTRY_BYTES = 24;
+    
+    /**
+     * Entries of a book, one mapping is at most 2 GB.
+     */
+    public static final long MAX_SIZE = 
+            (Integer.MAX_VALUE - HEADER_BYTES) / ENTRY_BYTES;
+    
+    static final int COUNT_OFFSET = 24;
+    
+    private static final int MOVE_OFFSET = 8;
+    
+    private static final int SCORE_OFFSET = 16;
+    
+    private static final int DEPTH_OFFSET = 20;
+    
+    
+    
+    
+    private final ByteBuffer buffer;
+    
+    private final GridRules rules;
+    
+    private final int depth;
+    
+    private final int size;
+    
+    
+    
+    
+    private OpeningBook(ByteBuffer buffer, GridRules rules, final int depth, 
+            final int size) {
+        this.buffer = buffer;
+        this.rules = rules;
+        this.depth = depth;
+        this.size = size;
+    }
+    
+    
+    
+    
+    /**
+     * Maps a book into memory. The file is not read until moves are looked 
+     * up, and it must not change while the book is in use.
+     * 
+     * @param file the file of the book
+     * 
+     * @return the book
+     * 
+     * @throws IOException if the file cannot be read or is not a book
+     */
+    public static OpeningBook open(Path file) throws IOException {
+        Contract.nonNull(file);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = 
+                FileChannel.open(file, StandardOpenOption.READ)) {
+            final long bytes = channel.size();
+            if (bytes < HEADER_BYTES || bytes > Integer.MAX_VALUE) {
+                throw new IOException("Not an opening book: " + file);
+            }
+            // The mapping stays valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, bytes);
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an opening book: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported opening book version: " 
+                    + buffer.getInt(4));
+        }
+        final int dimension = buffer.getInt(8);
+        final int winLength = buffer.getInt(12);
+        final int depth = buffer.getInt(16);
+        final long size = buffer.getLong(COUNT_OFFSET);
+        if (dimension < GridRules.MIN_DIMENSION 
+                || dimension > GridRules.MAX_DIMENSION 
+                || winLength < 1 || winLength > dimension 
+                || depth < 1 || depth > CellPath.MAX_DEPTH 
+                || size < 0L || size > MAX_SIZE 
+                || buffer.capacity() != HEADER_BYTES + size * ENTRY_BYTES) {
+            throw new IOException("Corrupt opening book: " + file);
+        }
+        return new OpeningBook(buffer, new GridRules(dimension, winLength), 
+                depth, (int) size);
+    }
+    
+    
+    
+    
+    public GridRules getRules() {
+        return rules;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    /**
+     * @return the number of positions in the book
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * @param state the position
+     * 
+     * @return the move the book plays in {@code state}, 
+     * {@link CellPath#NONE} if it is not in the book
+     */
+    public long getMove(GameState state) {
+        Entry entry = new Entry();
+        return probe(state, entry) ? entry.move : CellPath.NONE;
+    }
+    
+    /**
+     * Looks a position up. A position of another game, or one that is over, 
+     * is never in the book.
+     * 
+     * @param state the position
+     * @param entry where to put what was found
+     * 
+     * @return {@code false} if the position is not in the book, in which 
+     * case {@code entry} does not change
+     */
+    public boolean probe(GameState state, Entry entry) {
+        Contract.nonNull(state);
+        Contract.nonNull(entry);
+        if (size == 0 || state.isOver() || state.getDepth() != depth 
+                || !state.getRules().equals(rules)) {
+            return false;
+        }
+        final int transform = Symmetry.canonicalTransform(state);
+        final long key = Symmetry.transform(state, transform).getHash();
+        final int at = findImpl(key);
+        if (at < 0) {
+            return false;
+        }
+        final long move = Symmetry.path(rules.getDimension(), 
+                Symmetry.inverse(transform), 
+                buffer.getLong(at + MOVE_OFFSET));
+        // Another position of the same hash
+        if (!state.isLegal(move)) {
+            return false;
+        }
+        entry.move = move;
+        entry.score = buffer.getInt(at + SCORE_OFFSET);
+        entry.depth = buffer.getInt(at + DEPTH_OFFSET);
+        return true;
+    }
+    
+    
+    
+    
+    /**
+     * @return the offset of the entry of {@code key}, {@code -1} if there 
+     * is none
+     */
+    private int findImpl(final long key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int at = HEADER_BYTES + mid * ENTRY_BYTES;
+            final long found = buffer.getLong(at);
+            if (found < key) {
+                low = mid + 1;
+            } else if (found > key) {
+                high = mid - 1;
+            } else {
+                return at;
+            }
+        }
+        return -1;
+    }
+    
+    
+    
+    
+    /**
+     * What {@link #probe(GameState, Entry)} found, to be used again from 
+     * one probe to the next.
+     */
+    public static final class Entry {
+        
+        private long move = CellPath.NONE;
+        
+        private int score;
+        
+        private int depth;
+        
+        
+        
+        
+        /**
+         * @return the {@link CellPath} of the move to play
+         */
+        public long getMove() {
+            return move;
+        }
+        
+        /**
+         * @return the score of the move for the player to play it, 
+         * {@code 1000} being worth a won top level grid
+         */
+        public int getScore() {
+            return score;
+        }
+        
+        /**
+         * @return the plies the move was searched for
+         */
+        public int getDepth() {
+            return depth;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.players;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ca.raihan.util.internal.__UninstantiableImpl;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.GridRules;
+import ca.raihan.tictactoe.game.Symmetry;
+
+/**
+ * Writes the {@link OpeningBook} of a game, to be done once, offline, with 
+ * as much time as it takes.
+ * <p>
+ * Every position up to a number of plies into the game is searched by an 
+ * {@link AlphaBetaPlayer}. From each of the last of them the player then 
+ * plays against itself for some more plies, so the book also follows the 
+ * lines it would play. Positions a symmetry away from each other are one 
+ * entry. The positions are spread over a pool of threads, each with a 
+ * player of its own, all sharing one transposition table.
+ *
+ * @author Pranjal Raihan
+ */
+public final class OpeningBookBuilder extends __UninstantiableImpl {
+    
+    /**
+     * The shared transposition table has {@code 1 << TABLE_BITS} entries.
+     */
+    private static final int TABLE_BITS = 22;
+    
+    /**
+     * Entries written at a time.
+     */
+    private static final int BLOCK_SIZE = 1 << 12;
+    
+    private OpeningBookBuilder() {
+    }
+    
+    
+    
+    
+    /**
+     * @param rules the rules of the game
+     * @param depth the depth of the game
+     * @param plies every position up to {@code plies} into the game is in 
+     * the book
+     * @param lineLength the plies played from each position {@code plies} 
+     * into the game
+     * @param maxMillis the most time to search each position for
+     * @param threads the number of threads to search with
+     * @param file the file to write the book to, replaced if it exists
+     * 
+     * @return the number of positions in the book
+     * 
+     * @throws IOException if the book cannot be written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static int build(GridRules rules, final int depth, 
+            final int plies, final int lineLength, final long maxMillis, 
+            final int threads, Path file) 
+            throws IOException, InterruptedException {
+        Contract.nonNull(rules);
+        Contract.require(depth >= 1, "depth < 1");
+        Contract.require(plies >= 0, "plies < 0");
+        Contract.require(lineLength >= 0, "lineLength < 0");
+        Contract.require(maxMillis >= 1L, "maxMillis < 1");
+        Contract.require(threads >= 1, "threads < 1");
+        Contract.nonNull(file);
+        
+        final List<GameState> starts = new ArrayList<>();
+        final int lines = expandImpl(
+                GameState.initial(rules, depth), plies, starts);
+        final Map<Long, long[]> entries = new ConcurrentHashMap<>();
+        final AtomicInteger next = new AtomicInteger();
+        final TranspositionTable table = new TranspositionTable(TABLE_BITS);
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int i = 0; i < threads; ++i) {
+            tasks.add(new Callable<Void>() {
+                
+                public Void call() {
+                    AlphaBetaPlayer player = new AlphaBetaPlayer("book", 
+                            AlphaBetaPlayer.DEFAULT_MAX_DEPTH, 0L, 
+                            maxMillis, table);
+                    for (int at = next.getAndIncrement(); 
+                            at < starts.size(); 
+                            at = next.getAndIncrement()) {
+                        lineImpl(player, starts.get(at), 
+                                at < lines ? 0 : lineLength, entries);
+                    }
+                    return null;
+                }
+                
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        writeImpl(rules, depth, entries, file);
+        return entries.size();
+    }
+    
+    
+    
+    
+    /**
+     * Puts the canonical positions up to {@code plies} into the game that 
+     * are not over in {@code starts}, those {@code plies} into the game 
+     * last.
+     * 
+     * @return the index in {@code starts} of the first position 
+     * {@code plies} into the game
+     */
+    private static int expandImpl(GameState initial, final int plies, 
+            List<GameState> starts) {
+        Set<Long> seen = new HashSet<>();
+        List<GameState> level = new ArrayList<>();
+        GameState root = Symmetry.canonicalize(initial);
+        seen.add(root.getHash());
+        level.add(root);
+        for (int ply = 0; ply < plies; ++ply) {
+            starts.addAll(level);
+            List<GameState> children = new ArrayList<>();
+            for (GameState state : level) {
+                for (long move : state.legalMoves()) {
+                    GameState child = state.play(move);
+                    if (child.isOver()) {
+                        continue;
+                    }
+                    child = Symmetry.canonicalize(child);
+                    if (seen.add(child.getHash())) {
+                        children.add(child);
+                    }
+                }
+            }
+            level = children;
+        }
+        final int rv = starts.size();
+        starts.addAll(level);
+        return rv;
+    }
+    
+    /**
+     * Searches {@code start} and the positions of the {@code length} plies 
+     * played from it, unless another thread already did. An entry is the 
+     * move and the score and depth packed in a {@code long}.
+     */
+    private static void lineImpl(AlphaBetaPlayer player, GameState start, 
+            final int length, Map<Long, long[]> entries) {
+        GameState state = start;
+        for (int ply = 0; !state.isOver(); ++ply) {
+            final long key = state.getHash();
+            long[] entry = entries.get(key);
+            if (entry == null) {
+                final long move = player.chooseMove(state);
+                entry = new long[] { move, 
+                        ((long) player.getLastScore() << 32) 
+                                | player.getLastDepth() };
+                entries.putIfAbsent(key, entry);
+            }
+            if (ply == length) {
+                break;
+            }
+            state = Symmetry.canonicalize(state.play(entry[0]));
+        }
+    }
+    
+    private static void writeImpl(GridRules rules, final int depth, 
+            Map<Long, long[]> entries, Path file) throws IOException {
+        final int size = entries.size();
+        if (size > OpeningBook.MAX_SIZE) {
+            throw new IllegalStateException("Too many positions: " + size);
+        }
+        long[] keys = new long[size];
+        int count = 0;
+        for (Long key : entries.keySet()) {
+            keys[count++] = key;
+        }
+        Arrays.sort(keys);
+        
+        ByteBuffer buffer = ByteBuffer.allocate(
+                Math.max(OpeningBook.HEADER_BYTES, 
+                        BLOCK_SIZE * OpeningBook.ENTRY_BYTES));
+        try (FileChannel channel = FileChannel.open(file, 
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, 
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.putInt(OpeningBook.MAGIC);
+            buffer.putInt(OpeningBook.VERSION);
+            buffer.putInt(rules.getDimension());
+            buffer.putInt(rules.getWinLength());
+            buffer.putInt(depth);
+            buffer.putInt(0);
+            buffer.putLong(size);
+            writeImpl(channel, buffer);
+            for (long key : keys) {
+                final long[] entry = entries.get(key);
+                buffer.putLong(key);
+                buffer.putLong(entry[0]);
+                buffer.putInt((int) (entry[1] >> 32));
+                buffer.putInt((int) entry[1]);
+                if (!buffer.hasRemaining()) {
+                    writeImpl(channel, buffer);
+                }
+            }
+            writeImpl(channel, buffer);
+        }
+    }
+    
+    private static void writeImpl(FileChannel channel, ByteBuffer buffer) 
+            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+    
+}
@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.players;
+
+import java.util.Arrays;
+
+import ca.raihan.util.Contract;
+
+import ca.raihan.tictactoe.game.CellPath;
+
+/**
+ * A fixed size table of search results by 64 bit position hash, such as 
+ * {@link ca.raihan.tictactoe.game.Zobrist} hashes, that any number of 
+ * threads can read and write at once without locking. Its memory is the 
+ * same however many searches or games use it.
+ * <p>
+ * An entry is three {@code long}s of one array: a check word, the move 
+ * and the score, depth, bound and generation packed in one word. The check 
+ * word is the hash XOR the two others, so an entry half written by one 
+ * thread while another reads it, or torn by two writers, does not check 
+ * out and is read as missing.
+ * <p>
+ * Entries go by pairs. The first entry of a pair is only replaced by a 
+ * search at least as deep, or from a newer {@link #newGeneration() 
+ * generation}, the second by any search, so deep results stay while 
+ * recent ones still find a place.
+ * <p>
+ * Every search starts a new generation, also when the table is shared. 
+ * The entries of a search still under way in another thread then belong 
+ * to an older generation: they are still read, but no longer kept over 
+ * shallower results.
+ * <p>
+ * Only positions of the same game should share a table, the hash of a 
+ * position says nothing of the rules it is played by.
+ *
+ * @author Pranjal Raihan
+ */
+public final class TranspositionTable {
+    
+    /**
+     * The score is the value of the position.
+     */
+    public static final int EXACT = 0;
+    
+    /**
+     * The value of the position is at least the score.
+     */
+    public static final int LOWER = 1;
+    
+    /**
+     * The value of the position is at most the score.
+     */
+    public static final int UPPER = 2;
+    
+    public static final int MAX_SIZE_BITS = 28;
+    
+    public static final int MAX_DEPTH = 0xFF;
+    
+    private static final int ENTRY_SIZE = 3;
+    
+    private static final int DEPTH_SHIFT = 32;
+    
+    private static final int BOUND_SHIFT = 40;
+    
+    private static final int GENERATION_SHIFT = 48;
+    
+    /**
+     * Set in every entry written, so an empty entry never checks out.
+     */
+    private static final long USED = 1L << 63;
+    
+    
+    
+    
+    private final long[] entries;
+    
+    private final int pairMask;
+    
+    private volatile int generation;
+    
+    
+    
+    
+    /**
+     * @param sizeBits the table has {@code 1 << sizeBits} entries, from 
+     * {@code 1} to {@link #MAX_SIZE_BITS}
+     */
+    public TranspositionTable(final int sizeBits) {
+        Contract.require(sizeBits >= 1 && sizeBits <= MAX_SIZE_BITS, 
+                "sizeBits out of range");
+        entries = new long[ENTRY_SIZE << sizeBits];
+        pairMask = (1 << (sizeBits - 1)) - 1;
+    }
+    
+    
+    
+    
+    /**
+     * @return the number of entries
+     */
+    public int getCapacity() {
+        return entries.length / ENTRY_SIZE;
+    }
+    
+    /**
+     * Makes the entries written so far replaceable by any search. To be 
+     * called as a search starts, a stale entry is still read. Two threads 
+     * calling it at once may move the generation by one only, which makes 
+     * no difference.
+     */
+    public void newGeneration() {
+        generation = (generation + 1) & 0xFF;
+    }
+    
+    /**
+     * Empties the table. Searches under way at the same time may leave 
+     * entries behind.
+     */
+    public void clear() {
+        Arrays.fill(entries, 0L);
+    }
+    
+    /**
+     * @param key the hash of the position
+     * @param entry where to put what was found
+     * 
+     * @return {@code false} if the position is not in the table, in which 
+     * case {@code entry} does not change
+     */
+    public boolean probe(final long key, Entry entry) {
+        Contract.nonNull(entry);
+        final int first = ((int) key & pairMask) * 2 * ENTRY_SIZE;
+        for (int at = first; at <= first + ENTRY_SIZE; at += ENTRY_SIZE) {
+            final long move = entries[at + 1];
+            final long info = entries[at + 2];
+            if ((info & USED) != 0 && (entries[at] ^ move ^ info) == key) {
+                entry.move = move;
+                entry.score = (int) info;
+                entry.depth = (int) (info >>> DEPTH_SHIFT) & 0xFF;
+                entry.bound = (int) (info >>> BOUND_SHIFT) & 0x3;
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @param key the hash of the position
+     * @param move the best move found, {@link CellPath#NONE} for none
+     * @param score the score of the position
+     * @param depth the plies searched, from {@code 0} to 
+     * {@link #MAX_DEPTH}
+     * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+     */
+    public void store(final long key, final long move, final int score, 
+            final int depth, final int bound) {
+        Contract.require(depth >= 0 && depth <= MAX_DEPTH, 
+                "depth out of range");
+        Contract.require(bound >= EXACT && bound <= UPPER, 
+                "bound out of range");
+        final int g = generation;
+        final long info = USED | ((long) g << GENERATION_SHIFT) 
+                | ((long) bound << BOUND_SHIFT) 
+                | ((long) depth << DEPTH_SHIFT) | (score & 0xFFFFFFFFL);
+        final int first = ((int) key & pairMask) * 2 * ENTRY_SIZE;
+        final int second = first + ENTRY_SIZE;
+        int at;
+        if (isEntryOfImpl(second, key)) {
+            at = second;
+        } else if (isEntryOfImpl(first, key)) {
+            // Only a deeper result of the position replaces it
+            if (depth < depthImpl(first) && generationImpl(first) == g) {
+                return;
+            }
+            at = first;
+        } else if (depth >= depthImpl(first) 
+                || generationImpl(first) != g) {
+            at = first;
+        } else {
+            at = second;
+        }
+        entries[at + 1] = move;
+        entries[at + 2] = info;
+        entries[at] = key ^ move ^ info;
+    }
+    
+    
+    
+    
+    private boolean isEntryOfImpl(final int at, final long key) {
+        final long info = entries[at + 2];
+        return (info & USED) != 0 
+                && (entries[at] ^ entries[at + 1] ^ info) == key;
+    }
+    
+    private int depthImpl(final int at) {
+        return (int) (entries[at + 2] >>> DEPTH_SHIFT) & 0xFF;
+    }
+    
+    private int generationImpl(final int at) {
+        return (int) (entries[at + 2] >>> GENERATION_SHIFT) & 0xFF;
+    }
+    
+    
+    
+    
+    /**
+     * What {@link #probe(long, Entry)} found, to be used again from one 
+     * probe to the next.
+     */
+    public static final class Entry {
+        
+        private long move = CellPath.NONE;
+        
+        private int score;
+        
+        private int depth;
+        
+        private int bound;
+        
+        
+        
+        
+        public long getMove() {
+            return move;
+        }
+        
+        public int getScore() {
+            return score;
+        }
+        
+        public int getDepth() {
+            return depth;
+        }
+        
+        /**
+         * @return {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+         */
+        public int getBound() {
+            return bound;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.run;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import ca.raihan.tictactoe.game.CellPath;
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.GridRules;
+
+import ca.raihan.tictactoe.players.OpeningBook;
+import ca.raihan.tictactoe.players.OpeningBookBuilder;
+
+/**
+ * Builds an {@link OpeningBook} with {@link OpeningBookBuilder} from the 
+ * command line:
+ * <pre>
+ * BookMain file depth plies [lineLength] [millis] [threads] [dimension] 
+ *         [winLength]
+ * </pre>
+ * Prints the number of positions written and the time taken, then opens 
+ * the book and prints the move it plays in the initial position and how 
+ * long looking it up takes.
+ *
+ * @author Pranjal Raihan
+ */
+public class BookMain {
+    
+    /**
+     * Times the lookup is repeated for.
+     */
+    private static final int LOOKUPS = 100000;
+    
+    
+    
+    
+    /**
+     * @param args the command line arguments
+     * 
+     * @throws java.lang.Throwable in any case
+     */
+    public static void main(String[] args) throws Throwable {
+        if (args.length < 3) {
+            System.err.println("usage: BookMain file depth plies "
+                    + "[lineLength] [millis] [threads] [dimension] "
+                    + "[winLength]");
+            System.exit(-1);
+        }
+        final Path file = Paths.get(args[0]);
+        long[] values = { 0, 0, 8, 1000, 
+                Runtime.getRuntime().availableProcessors(), 3, -1 };
+        for (int i = 1; i < args.length && i <= values.length; ++i) {
+            values[i - 1] = Long.parseLong(args[i]);
+        }
+        final int depth = (int) values[0];
+        final int plies = (int) values[1];
+        final int lineLength = (int) values[2];
+        final long millis = values[3];
+        final int threads = (int) values[4];
+        final int dimension = (int) values[5];
+        final int winLength = values[6] < 0 ? dimension : (int) values[6];
+        GridRules rules = new GridRules(dimension, winLength);
+        
+        long time = System.nanoTime();
+        final int size = OpeningBookBuilder.build(rules, depth, plies, 
+                lineLength, millis, threads, file);
+        time = System.nanoTime() - time;
+        System.out.println(size + " positions written to " + file 
+                + " in " + time / 1000000L + " ms");
+        
+        time = System.nanoTime();
+        OpeningBook book = OpeningBook.open(file);
+        time = System.nanoTime() - time;
+        System.out.println("opened in " + time / 1000L + " us");
+        
+        GameState initial = GameState.initial(rules, depth);
+        long move = CellPath.NONE;
+        time = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; ++i) {
+            move = book.getMove(initial);
+        }
+        time = System.nanoTime() - time;
+        System.out.println("initial move: " 
+                + CellPath.toString(dimension, move) + ", " 
+                + time / LOOKUPS + " ns per lookup");
+    }
+    
+}
@@ -73,11 +73,14 @@ public class Main {
         Image xImage = resolveImage(xPath, xType);
         Image oImage = resolveImage(oPath, oType);
         
+        int dimension = cfg.getOrDefault(Keywords.GAME_DIMENSION, 3);
+        int winLength = cfg.getOrDefault(Keywords.GAME_WIN_LENGTH, dimension);
+        
         AWTGameManager gm = new AWTGameManager(
                 new GameInitParams<>(
                         new PlayerImpl(), xImage, 
                         new PlayerImpl(), oImage, 
-                        cfg));
+                        cfg, dimension, winLength));
         
         System.out.print("depth: ");
         Scanner scanner = new Scanner(System.in);
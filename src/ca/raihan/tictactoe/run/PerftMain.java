@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright 2014 See AUTHORS file.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package ca.raihan.tictactoe.run;
+
+import ca.raihan.tictactoe.game.CellPath;
+import ca.raihan.tictactoe.game.GameState;
+import ca.raihan.tictactoe.game.GridRules;
+import ca.raihan.tictactoe.game.Perft;
+
+import java.util.Map;
+
+/**
+ * Runs {@link Perft} from the command line:
+ * <pre>
+ * PerftMain depth plies [threads] [dimension] [winLength] [--model]
+ * PerftMain --check
+ * </pre>
+ * Prints the count below every legal move of the initial position, the 
+ * total and the number of positions reached per second. With 
+ * {@code --model} the game manager is walked instead of 
+ * {@link GameState}. With {@code --check} every walk is compared with the 
+ * known counts by {@link Perft#check()}, and a wrong count fails.
+ *
+ * @author Pranjal Raihan
+ */
+public class PerftMain {
+    
+    /**
+     * @param args the command line arguments
+     * 
+     * @throws java.lang.Throwable in any case
+     */
+    public static void main(String[] args) throws Throwable {
+        if (args.length == 1 && args[0].equals("--check")) {
+            Perft.check();
+            System.out.println("perft counts ok");
+            return;
+        }
+        boolean model = false;
+        int[] values = { 0, 0, 
+                Runtime.getRuntime().availableProcessors(), 3, -1 };
+        int count = 0;
+        for (String arg : args) {
+            if (arg.equals("--model")) {
+                model = true;
+            } else if (count < values.length) {
+                values[count++] = Integer.parseInt(arg);
+            }
+        }
+        if (count < 2) {
+            System.err.println("usage: PerftMain depth plies [threads] "
+                    + "[dimension] [winLength] [--model]");
+            System.err.println("       PerftMain --check");
+            System.exit(-1);
+        }
+        final int depth = values[0];
+        final int plies = values[1];
+        final int threads = values[2];
+        final int dimension = values[3];
+        final int winLength = values[4] < 0 ? dimension : values[4];
+        GridRules rules = new GridRules(dimension, winLength);
+        
+        long time = System.nanoTime();
+        Map<Long, Long> divide = model ? 
+                Perft.divide(rules, depth, new long[0], plies, threads) : 
+                Perft.divide(GameState.initial(rules, depth), plies, threads);
+        time = System.nanoTime() - time;
+        
+        long total = 0L;
+        for (Map.Entry<Long, Long> e : divide.entrySet()) {
+            System.out.println(CellPath.toString(dimension, e.getKey()) 
+                    + ": " + e.getValue());
+            total += e.getValue();
+        }
+        System.out.println("total: " + total);
+        System.out.println("time: " + time / 1000000L + " ms, " 
+                + (long) (total / (time / 1e9)) + " positions/s");
+    }
+    
+}